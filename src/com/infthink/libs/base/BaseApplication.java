@@ -6,9 +6,11 @@ import java.net.CookieHandler;
 import java.net.CookieManager;
 
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.net.http.HttpResponseCache;
 import android.util.Log;
 
+import com.infthink.libs.cache.CachePoolRegistry;
 import com.infthink.libs.common.message.MessageManager;
 import com.infthink.libs.common.utils.IDebuggable;
 
@@ -46,9 +48,23 @@ public abstract class BaseApplication extends Application implements IDebuggable
         return sInstance;
     }
 
+    /**
+     * 按内存紧张的程度释放所有的缓存池
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        CachePoolRegistry.trimMemory(level);
+        if (DEBUG) {
+            Log.d(TAG, String.format("onTrimMemory level:%s", level));
+            CachePoolRegistry.dumpStats();
+        }
+    }
+
     @Override
     public void onLowMemory() {
         super.onLowMemory();
+        CachePoolRegistry.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
         HttpResponseCache cache = HttpResponseCache.getInstalled();
         if (cache != null) {
             cache.flush();
@@ -58,6 +74,7 @@ public abstract class BaseApplication extends Application implements IDebuggable
     @Override
     public void onTerminate() {
         super.onTerminate();
+        CachePoolRegistry.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
         HttpResponseCache cache = HttpResponseCache.getInstalled();
         if (cache != null) {
             cache.flush();
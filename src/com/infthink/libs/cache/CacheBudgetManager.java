@@ -0,0 +1,268 @@
+package com.infthink.libs.cache;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+
+import com.infthink.libs.common.utils.IDebuggable;
+
+/**
+ * <pre>
+ * 进程内所有缓存池共享的内存预算。
+ * 预算通常取 {@linkplain ActivityManager#getMemoryClass()} 的一部分，加入管理的缓存池按各自创建时的maxSize的比例分配预算，
+ * 之后每隔一段时间根据各个缓存池的统计调整一次容量：
+ * 每字节命中最少的缓存池让出一部分容量，给因为容量不足淘汰后又未命中最多的缓存池。
+ * 每个缓存池用 {@linkplain GhostKeys} 记录最近因为空间不足被淘汰的key，只有这些key再次未命中才算容量不足，
+ * 调整容量和内存紧张时的淘汰不计入。
+ * 内存紧张时，每字节命中少的缓存池比命中多的释放得更多，见 {@linkplain #retainFraction(LruCachePool, int)}。
+ * </pre>
+ */
+public class CacheBudgetManager implements IDebuggable {
+
+    private static final String TAG = CacheBudgetManager.class.getSimpleName();
+    private static final long REBALANCE_INTERVAL = 30 * 1000;
+    /**
+     * 每次调整时移动的容量占让出者容量的比例
+     */
+    private static final float REBALANCE_STEP = 0.1f;
+
+    private static final List<Member> sMembers = new CopyOnWriteArrayList<Member>();
+    private static final AtomicBoolean sRebalanceScheduled = new AtomicBoolean();
+    private static volatile long sBudget;
+
+    private static final class Member {
+
+        final WeakReference<LruCachePool<?, ?>> pool;
+        final int minSize;
+        final GhostKeys ghostKeys = new GhostKeys();
+        long lastHitCount;
+        /**
+         * 上一个周期每字节容量的命中数，没有用到的容量也计算在内
+         */
+        volatile double value;
+        /**
+         * 上一个周期每字节容量中，被淘汰的key再次未命中的次数，即增加容量可能带来的命中
+         */
+        double gain;
+
+        Member(LruCachePool<?, ?> pool, int minSize) {
+            this.pool = new WeakReference<LruCachePool<?, ?>>(pool);
+            this.minSize = minSize;
+            lastHitCount = pool.getStats().getHitCount(CacheStats.Tier.MEMORY);
+        }
+
+    }
+
+    private CacheBudgetManager() {
+    }
+
+    /**
+     * @param context
+     * @param fraction 预算占 {@linkplain ActivityManager#getMemoryClass()} 的比例，例如0.25
+     */
+    public static void setBudget(Context context, float fraction) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        setBudget((long) (activityManager.getMemoryClass() * 1024L * 1024L * fraction));
+    }
+
+    /**
+     * @param bytes 所有加入管理的缓存池的maxSize之和，小于等于0表示不限制，缓存池保持各自当前的容量
+     */
+    public static void setBudget(long bytes) {
+        sBudget = bytes;
+        distribute();
+        scheduleRebalance();
+    }
+
+    public static long getBudget() {
+        return sBudget;
+    }
+
+    /**
+     * 加入预算管理，缓存池的sizeOf应该以字节为单位。当前的maxSize作为分配预算时的权重
+     * @param pool
+     * @param minSize 调整容量时不会低于此值
+     */
+    public static void manage(LruCachePool<?, ?> pool, int minSize) {
+        if (pool == null || find(pool) != null) {
+            return;
+        }
+        Member member = new Member(pool, Math.max(1, minSize));
+        sMembers.add(member);
+        pool.mGhostKeys = member.ghostKeys;
+        distribute();
+        scheduleRebalance();
+    }
+
+    public static void unmanage(LruCachePool<?, ?> pool) {
+        for (Member member : sMembers) {
+            LruCachePool<?, ?> managed = member.pool.get();
+            if (managed == null || managed == pool) {
+                sMembers.remove(member);
+                if (managed != null) {
+                    managed.mGhostKeys = null;
+                }
+            }
+        }
+        distribute();
+    }
+
+    /**
+     * <pre>
+     * 内存紧张时缓存池应该保留的比例。
+     * 在 {@linkplain CachePoolRegistry#retainFraction(int)} 的基础上，按上一个周期每字节命中数的排名调整：
+     * 排名最低的保留一半，最高的保留1.5倍（不超过全部），没有加入管理的缓存池不调整。
+     * </pre>
+     * @param pool
+     * @param level {@linkplain android.content.ComponentCallbacks2} 中的TRIM_MEMORY_*
+     * @return 0~1
+     */
+    public static float retainFraction(LruCachePool<?, ?> pool, int level) {
+        float fraction = CachePoolRegistry.retainFraction(level);
+        if (fraction <= 0 || fraction >= 1) {
+            return fraction;
+        }
+        Member self = find(pool);
+        if (self == null || sMembers.size() < 2) {
+            return fraction;
+        }
+        double value = self.value;
+        float rank = 0;
+        int count = 0;
+        for (Member member : sMembers) {
+            if (member == self || member.pool.get() == null) {
+                continue;
+            }
+            count++;
+            if (member.value < value) {
+                rank += 1;
+            } else if (member.value == value) {
+                rank += 0.5f;
+            }
+        }
+        if (count == 0) {
+            return fraction;
+        }
+        return Math.min(1f, fraction * (0.5f + rank / count));
+    }
+
+    /**
+     * 根据上一个周期的统计移动一次容量，通常不需要直接调用
+     */
+    public static synchronized void rebalance() {
+        Member donor = null;
+        Member recipient = null;
+        for (Member member : sMembers) {
+            LruCachePool<?, ?> pool = member.pool.get();
+            if (pool == null) {
+                sMembers.remove(member);
+                continue;
+            }
+            long hitCount = pool.getStats().getHitCount(CacheStats.Tier.MEMORY);
+            long hits = hitCount - member.lastHitCount;
+            member.lastHitCount = hitCount;
+            member.value = (double) hits / Math.max(1, pool.maxSize());
+            member.gain = (double) member.ghostKeys.drainHitCount() / Math.max(1, pool.maxSize());
+            if (pool.maxSize() > member.minSize && (donor == null || member.value < donor.value)) {
+                donor = member;
+            }
+            if (member.gain > 0 && (recipient == null || member.gain > recipient.gain)) {
+                recipient = member;
+            }
+        }
+        if (sBudget <= 0 || donor == null || recipient == null || donor == recipient || recipient.gain <= donor.value) {
+            return;
+        }
+        LruCachePool<?, ?> from = donor.pool.get();
+        LruCachePool<?, ?> to = recipient.pool.get();
+        if (from == null || to == null) {
+            return;
+        }
+        int step = Math.min((int) (from.maxSize() * REBALANCE_STEP), from.maxSize() - donor.minSize);
+        if (step <= 0) {
+            return;
+        }
+        resize(donor, from, from.maxSize() - step);
+        resize(recipient, to, (long) to.maxSize() + step);
+        if (DEBUG)
+            Log.d(TAG, String.format("移动容量 %s, %s(%.4f) -> %s(%.4f)", step, from, donor.value, to, recipient.gain));
+    }
+
+    /**
+     * 按当前的maxSize的比例把预算分配给所有加入管理的缓存池
+     */
+    private static synchronized void distribute() {
+        long budget = sBudget;
+        if (budget <= 0) {
+            return;
+        }
+        long total = 0;
+        for (Member member : sMembers) {
+            LruCachePool<?, ?> pool = member.pool.get();
+            if (pool != null) {
+                total += pool.maxSize();
+            }
+        }
+        if (total <= 0) {
+            return;
+        }
+        for (Member member : sMembers) {
+            LruCachePool<?, ?> pool = member.pool.get();
+            if (pool != null) {
+                resize(member, pool, Math.max(member.minSize, budget * pool.maxSize() / total));
+            }
+        }
+    }
+
+    /**
+     * 缩小容量造成的淘汰不记入 {@linkplain GhostKeys}，避免之后的未命中被误认为容量不足
+     */
+    private static void resize(Member member, LruCachePool<?, ?> pool, long maxSize) {
+        member.ghostKeys.suspend();
+        try {
+            pool.resize((int) Math.min(Integer.MAX_VALUE, maxSize));
+        } finally {
+            member.ghostKeys.resume();
+        }
+    }
+
+    private static Member find(LruCachePool<?, ?> pool) {
+        for (Member member : sMembers) {
+            if (member.pool.get() == pool) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    private static void scheduleRebalance() {
+        if (sMembers.isEmpty() || !sRebalanceScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            CacheExecutors.scheduler().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rebalance();
+                    } catch (RuntimeException e) {
+                        if (DEBUG)
+                            e.printStackTrace();
+                    }
+                }
+            }, REBALANCE_INTERVAL, REBALANCE_INTERVAL, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            sRebalanceScheduled.set(false);
+            if (DEBUG)
+                e.printStackTrace();
+        }
+    }
+
+}
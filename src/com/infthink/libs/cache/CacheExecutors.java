@@ -0,0 +1,97 @@
+package com.infthink.libs.cache;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Process;
+
+/**
+ * 缓存池在后台执行任务使用的线程池，例如过期缓存的后台刷新和预加载。
+ * 线程的优先级为 {@linkplain Process#THREAD_PRIORITY_BACKGROUND}，不会与UI线程和前台的加载竞争CPU。
+ */
+public class CacheExecutors {
+
+    private static final String TAG = CacheExecutors.class.getSimpleName();
+    private static final int POOL_SIZE = 2;
+    private static final int KEEP_ALIVE = 30;
+
+    private static final Executor BACKGROUND_EXECUTOR;
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                newThreadFactory(TAG, Process.THREAD_PRIORITY_BACKGROUND));
+        executor.allowCoreThreadTimeOut(true);
+        BACKGROUND_EXECUTOR = executor;
+    }
+
+    /**
+     * 预加载专用的线程池，按任务的优先级执行，提交的任务必须实现Comparable
+     */
+    private static final Executor PREFETCH_EXECUTOR;
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                newThreadFactory(TAG + "-prefetch", Process.THREAD_PRIORITY_LOWEST));
+        executor.allowCoreThreadTimeOut(true);
+        PREFETCH_EXECUTOR = executor;
+    }
+
+    /**
+     * 定时任务使用的单线程，只执行很短的任务
+     */
+    private static final ScheduledExecutorService SCHEDULER;
+    static {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, newThreadFactory(TAG + "-scheduler", Process.THREAD_PRIORITY_BACKGROUND));
+        executor.setKeepAliveTime(KEEP_ALIVE, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        SCHEDULER = executor;
+    }
+
+    private CacheExecutors() {
+    }
+
+    /**
+     * @return 低优先级的后台线程池
+     */
+    public static Executor background() {
+        return BACKGROUND_EXECUTOR;
+    }
+
+    /**
+     * @return 预加载使用的最低优先级的线程池，任务按优先级排队
+     * @see PrefetchHandle
+     */
+    static Executor prefetch() {
+        return PREFETCH_EXECUTOR;
+    }
+
+    /**
+     * @return 执行定时任务的单线程，耗时的工作应该再提交到 {@linkplain #background()}
+     */
+    public static ScheduledExecutorService scheduler() {
+        return SCHEDULER;
+    }
+
+    private static ThreadFactory newThreadFactory(final String name, final int priority) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(priority);
+                        r.run();
+                    }
+                }, name + "#" + mCount.getAndIncrement());
+            }
+        };
+    }
+
+}
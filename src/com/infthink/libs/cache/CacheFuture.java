@@ -0,0 +1,147 @@
+package com.infthink.libs.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.infthink.libs.common.utils.IDebuggable;
+
+/**
+ * <pre>
+ * {@linkplain ICachePool#getCacheAsync(ICacheId, java.util.concurrent.Executor)} 的结果。
+ * 强引用缓存命中时创建即已完成，否则在加载完成后完成，加载失败时结果为null。
+ * 回调在完成结果的线程中执行，已经完成时在添加回调的线程中立即执行；取消后不再回调。
+ * </pre>
+ */
+public class CacheFuture<V> implements Future<V>, IDebuggable {
+
+    public interface ICallback<V> {
+
+        /**
+         * @param cacheable 加载失败时为null
+         */
+        public void onCacheLoaded(V cacheable);
+
+    }
+
+    private final List<ICallback<V>> mCallbacks = new ArrayList<ICallback<V>>(1);
+    private boolean mDone;
+    private boolean mCancelled;
+    private V mValue;
+
+    /**
+     * @param value
+     * @return 已经完成的结果
+     */
+    public static <V> CacheFuture<V> completed(V value) {
+        CacheFuture<V> future = new CacheFuture<V>();
+        future.mDone = true;
+        future.mValue = value;
+        return future;
+    }
+
+    /**
+     * 添加完成时的回调
+     * @param callback
+     * @return this
+     */
+    public CacheFuture<V> addCallback(ICallback<V> callback) {
+        V value;
+        synchronized (this) {
+            if (mCancelled) {
+                return this;
+            }
+            if (!mDone) {
+                mCallbacks.add(callback);
+                return this;
+            }
+            value = mValue;
+        }
+        callback.onCacheLoaded(value);
+        return this;
+    }
+
+    /**
+     * 设置结果并执行回调，只有第一次调用有效
+     * @param value
+     */
+    void complete(V value) {
+        List<ICallback<V>> callbacks;
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            mValue = value;
+            notifyAll();
+            callbacks = new ArrayList<ICallback<V>>(mCallbacks);
+            mCallbacks.clear();
+        }
+        for (ICallback<V> callback : callbacks) {
+            try {
+                callback.onCacheLoaded(value);
+            } catch (RuntimeException e) {
+                if (DEBUG)
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 取消后不再回调。正在进行的加载可能被其它请求共享，所以不会被中断，加载的结果仍然会放入缓存池
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            mCancelled = true;
+            mCallbacks.clear();
+            notifyAll();
+            return true;
+        }
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    @Override
+    public synchronized V get() throws InterruptedException {
+        while (!mDone) {
+            wait();
+        }
+        if (mCancelled) {
+            throw new CancellationException();
+        }
+        return mValue;
+    }
+
+    @Override
+    public synchronized V get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!mDone) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (mCancelled) {
+            throw new CancellationException();
+        }
+        return mValue;
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.infthink.libs.cache;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <pre>
+ * 固定大小、无锁的CacheId复用表，按64位指纹直接定位槽位，冲突时覆盖旧的CacheId。
+ * 频繁访问同一批数据时（例如滑动列表）可以复用已经创建的CacheId，避免每次都创建新的对象。
+ * 表中取出的只是候选，调用者需要确认它的参数与要创建的CacheId完全相同。
+ * </pre>
+ */
+public class CacheIdInternTable<T extends ICacheId<?>> {
+
+    private final AtomicReferenceArray<T> mTable;
+    private final int mMask;
+
+    /**
+     * @param capacity 槽位数量，取不小于此值的2的幂
+     */
+    public CacheIdInternTable(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mTable = new AtomicReferenceArray<T>(size);
+        mMask = size - 1;
+    }
+
+    /**
+     * @param fingerprint
+     * @return 指纹所在槽位中的CacheId，可能为null或者是参数不同的CacheId
+     */
+    public T get(long fingerprint) {
+        return mTable.get(indexOf(fingerprint));
+    }
+
+    public void put(long fingerprint, T cacheId) {
+        mTable.set(indexOf(fingerprint), cacheId);
+    }
+
+    private int indexOf(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 29)) & mMask;
+    }
+
+}
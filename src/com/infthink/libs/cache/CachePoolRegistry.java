@@ -0,0 +1,113 @@
+package com.infthink.libs.cache;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import com.infthink.libs.common.utils.IDebuggable;
+
+/**
+ * <pre>
+ * 进程中所有存活的缓存池，只持有弱引用，不影响缓存池的回收。
+ * {@linkplain LruCachePool} 第一次被使用时自动注册，系统内存不足时通过 {@linkplain #trimMemory(int)} 统一释放。
+ * </pre>
+ * @see com.infthink.libs.base.BaseApplication#onTrimMemory(int)
+ */
+public class CachePoolRegistry implements IDebuggable {
+
+    private static final String TAG = CachePoolRegistry.class.getSimpleName();
+    private static final List<WeakReference<ICachePool<?, ?>>> sPools = new CopyOnWriteArrayList<WeakReference<ICachePool<?, ?>>>();
+
+    private CachePoolRegistry() {
+    }
+
+    public static void register(ICachePool<?, ?> pool) {
+        if (pool != null) {
+            sPools.add(new WeakReference<ICachePool<?, ?>>(pool));
+        }
+    }
+
+    public static void unregister(ICachePool<?, ?> pool) {
+        for (WeakReference<ICachePool<?, ?>> reference : sPools) {
+            ICachePool<?, ?> registered = reference.get();
+            if (registered == null || registered == pool) {
+                sPools.remove(reference);
+            }
+        }
+    }
+
+    /**
+     * @return 所有存活的缓存池
+     */
+    public static List<ICachePool<?, ?>> getPools() {
+        List<ICachePool<?, ?>> pools = new ArrayList<ICachePool<?, ?>>();
+        for (WeakReference<ICachePool<?, ?>> reference : sPools) {
+            ICachePool<?, ?> pool = reference.get();
+            if (pool == null) {
+                sPools.remove(reference);
+            } else {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    /**
+     * 按内存紧张的程度释放所有缓存池
+     * @param level {@linkplain ComponentCallbacks2} 中的TRIM_MEMORY_*
+     */
+    public static void trimMemory(int level) {
+        for (ICachePool<?, ?> pool : getPools()) {
+            pool.trimMemory(level);
+        }
+        if (DEBUG)
+            Log.d(TAG, String.format("trimMemory level:%s, pools:%s", level, sPools.size()));
+    }
+
+    /**
+     * <pre>
+     * 内存紧张时缓存池应该保留的比例。
+     * 前台运行时（RUNNING_*）只做少量释放，进入后台后越可能被杀死释放得越多，COMPLETE时全部清空。
+     * </pre>
+     * @param level {@linkplain ComponentCallbacks2} 中的TRIM_MEMORY_*
+     * @return 0~1
+     */
+    public static float retainFraction(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return 0f;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return 0.125f;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 0.25f;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return 0.5f;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25f;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.75f;
+        }
+        return 1f;
+    }
+
+    /**
+     * 输出所有缓存池的统计信息
+     */
+    public static void dumpStats() {
+        for (ICachePool<?, ?> pool : getPools()) {
+            Log.d(TAG, String.format("%s %s", pool, pool.getStats()));
+        }
+    }
+
+}
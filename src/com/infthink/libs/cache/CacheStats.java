@@ -0,0 +1,218 @@
+package com.infthink.libs.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * 缓存池的统计信息，所有计数都是无锁的原子操作，可以在正式版本中一直开启。
+ * 命中按提供缓存的层级分别计数：强引用 {@linkplain Tier#MEMORY}、软引用 {@linkplain Tier#SOFT}、
+ * 由内存中其它缓存生成 {@linkplain Tier#DERIVED}、磁盘 {@linkplain Tier#DISK}。
+ * 所有层级都没有命中时通过 {@linkplain ICacheId#createCache()} 等方式加载，记录加载结果和耗时，耗时按2的幂分段统计。
+ * </pre>
+ * @see ICachePool#getStats()
+ */
+public class CacheStats {
+
+    public enum Tier {
+        MEMORY, SOFT, DERIVED, DISK
+    }
+
+    /**
+     * 耗时分段的数量，第0段为0毫秒，第i段为 [2^(i-1), 2^i) 毫秒，最后一段包含所有更长的耗时
+     */
+    public static final int LATENCY_BUCKETS = 16;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mMemoryMissCount = new AtomicLong();
+    private final AtomicLongArray mHitCounts = new AtomicLongArray(Tier.values().length);
+    private final AtomicLong mLoadSuccessCount = new AtomicLong();
+    private final AtomicLong mLoadFailureCount = new AtomicLong();
+    private final AtomicLong mNegativeHitCount = new AtomicLong();
+    private final AtomicLong mTotalLoadTime = new AtomicLong();
+    private final AtomicLongArray mLoadLatencies = new AtomicLongArray(LATENCY_BUCKETS);
+    private final AtomicLongArray mRemovalCounts = new AtomicLongArray(RemovalCause.values().length);
+
+    /**
+     * 记录一次 {@linkplain ICachePool#getCache(ICacheId)} 调用
+     */
+    public void recordRequest() {
+        mRequestCount.incrementAndGet();
+    }
+
+    /**
+     * 记录一次强引用缓存未命中
+     */
+    public void recordMemoryMiss() {
+        mMemoryMissCount.incrementAndGet();
+    }
+
+    /**
+     * 记录一次强引用以外的层级的命中，强引用的命中由请求数和未命中数计算
+     * @param tier
+     */
+    public void recordHit(Tier tier) {
+        mHitCounts.incrementAndGet(tier.ordinal());
+    }
+
+    /**
+     * @param success 是否加载成功
+     * @param nanos 加载耗时，单位纳秒
+     */
+    public void recordLoad(boolean success, long nanos) {
+        if (success) {
+            mLoadSuccessCount.incrementAndGet();
+        } else {
+            mLoadFailureCount.incrementAndGet();
+        }
+        mTotalLoadTime.addAndGet(nanos);
+        long millis = nanos / 1000000;
+        int bucket = Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+        mLoadLatencies.incrementAndGet(bucket);
+    }
+
+    /**
+     * 记录一次因为之前加载失败、还在退避时间内而没有加载的请求
+     * @see NegativeCache
+     */
+    public void recordNegativeHit() {
+        mNegativeHitCount.incrementAndGet();
+    }
+
+    public void recordRemoval(RemovalCause cause) {
+        mRemovalCounts.incrementAndGet(cause.ordinal());
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @param tier
+     * @return 该层级的命中数
+     */
+    public long getHitCount(Tier tier) {
+        if (tier == Tier.MEMORY) {
+            return Math.max(0, mRequestCount.get() - mMemoryMissCount.get());
+        }
+        return mHitCounts.get(tier.ordinal());
+    }
+
+    /**
+     * @return 所有层级的命中数之和
+     */
+    public long getHitCount() {
+        long count = 0;
+        for (Tier tier : Tier.values()) {
+            count += getHitCount(tier);
+        }
+        return count;
+    }
+
+    /**
+     * @return 所有层级都没有命中的次数，并发读取同一个缓存时共享的加载都计为未命中
+     */
+    public long getMissCount() {
+        return Math.max(0, mRequestCount.get() - getHitCount());
+    }
+
+    /**
+     * @return 命中率 0~1，没有请求时为1
+     */
+    public double getHitRate() {
+        long requestCount = mRequestCount.get();
+        return requestCount == 0 ? 1.0 : Math.min(1.0, (double) getHitCount() / requestCount);
+    }
+
+    public long getLoadSuccessCount() {
+        return mLoadSuccessCount.get();
+    }
+
+    public long getLoadFailureCount() {
+        return mLoadFailureCount.get();
+    }
+
+    public long getNegativeHitCount() {
+        return mNegativeHitCount.get();
+    }
+
+    /**
+     * @return 平均加载耗时，单位纳秒
+     */
+    public long getAverageLoadPenalty() {
+        long loadCount = mLoadSuccessCount.get() + mLoadFailureCount.get();
+        return loadCount == 0 ? 0 : mTotalLoadTime.get() / loadCount;
+    }
+
+    /**
+     * @return 加载耗时的分段统计，见 {@linkplain #LATENCY_BUCKETS}
+     */
+    public long[] getLoadLatencyHistogram() {
+        long[] histogram = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            histogram[i] = mLoadLatencies.get(i);
+        }
+        return histogram;
+    }
+
+    public long getRemovalCount(RemovalCause cause) {
+        return mRemovalCounts.get(cause.ordinal());
+    }
+
+    /**
+     * @return 当前统计值的拷贝，之后的记录不会影响拷贝
+     */
+    public CacheStats snapshot() {
+        CacheStats snapshot = new CacheStats();
+        snapshot.mRequestCount.set(mRequestCount.get());
+        snapshot.mMemoryMissCount.set(mMemoryMissCount.get());
+        for (int i = 0; i < mHitCounts.length(); i++) {
+            snapshot.mHitCounts.set(i, mHitCounts.get(i));
+        }
+        snapshot.mLoadSuccessCount.set(mLoadSuccessCount.get());
+        snapshot.mLoadFailureCount.set(mLoadFailureCount.get());
+        snapshot.mNegativeHitCount.set(mNegativeHitCount.get());
+        snapshot.mTotalLoadTime.set(mTotalLoadTime.get());
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            snapshot.mLoadLatencies.set(i, mLoadLatencies.get(i));
+        }
+        for (int i = 0; i < mRemovalCounts.length(); i++) {
+            snapshot.mRemovalCounts.set(i, mRemovalCounts.get(i));
+        }
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CacheStats[");
+        sb.append("requests=").append(getRequestCount());
+        for (Tier tier : Tier.values()) {
+            sb.append(",hit").append(tier).append('=').append(getHitCount(tier));
+        }
+        sb.append(",misses=").append(getMissCount());
+        sb.append(",hitRate=").append(String.format("%.1f%%", getHitRate() * 100));
+        sb.append(",loadSuccess=").append(getLoadSuccessCount());
+        sb.append(",loadFailure=").append(getLoadFailureCount());
+        sb.append(",negativeHits=").append(getNegativeHitCount());
+        sb.append(",avgLoadMs=").append(getAverageLoadPenalty() / 1000000);
+        for (RemovalCause cause : RemovalCause.values()) {
+            sb.append(",removed").append(cause).append('=').append(getRemovalCount(cause));
+        }
+        sb.append(",loadMsHistogram={");
+        long[] histogram = getLoadLatencyHistogram();
+        boolean first = true;
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] == 0) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(i == 0 ? "0" : i == histogram.length - 1 ? ">=" + (1L << (i - 1)) : "<" + (1L << i)).append(':').append(histogram[i]);
+        }
+        sb.append("}]");
+        return sb.toString();
+    }
+
+}
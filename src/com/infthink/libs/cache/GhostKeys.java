@@ -0,0 +1,68 @@
+package com.infthink.libs.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 最近因为空间不足被淘汰的key，只保存key不保存缓存对象，最多保存 {@value #MAX_KEYS} 个，超出时丢弃最早淘汰的。
+ * 之后这些key再次未命中时计数，即增加容量本可以命中的次数，见 {@linkplain CacheBudgetManager}。
+ * </pre>
+ */
+final class GhostKeys {
+
+    private static final int MAX_KEYS = 1024;
+
+    private final Map<Object, Boolean> mKeys = new LinkedHashMap<Object, Boolean>(16, 0.75f, false) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Boolean> eldest) {
+            return size() > MAX_KEYS;
+        }
+    };
+    private final AtomicLong mHitCount = new AtomicLong();
+    private volatile Thread mSuspendedThread;
+
+    void add(Object key) {
+        if (Thread.currentThread() == mSuspendedThread) {
+            return;
+        }
+        synchronized (mKeys) {
+            mKeys.put(key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * 缓存未命中时调用
+     */
+    void recordMiss(Object key) {
+        boolean hit;
+        synchronized (mKeys) {
+            hit = mKeys.remove(key) != null;
+        }
+        if (hit) {
+            mHitCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return 上次调用后淘汰过的key再次未命中的次数
+     */
+    long drainHitCount() {
+        return mHitCount.getAndSet(0);
+    }
+
+    /**
+     * 当前线程接下来的淘汰不记录，例如主动缩小容量，直到调用 {@linkplain #resume()}
+     */
+    void suspend() {
+        mSuspendedThread = Thread.currentThread();
+    }
+
+    void resume() {
+        mSuspendedThread = null;
+    }
+
+}
@@ -1,5 +1,8 @@
 package com.infthink.libs.cache;
 
+import java.util.Collection;
+import java.util.concurrent.Executor;
+
 import com.infthink.libs.common.utils.IDebuggable;
 
 /**
@@ -17,6 +20,22 @@ public interface ICachePool<K extends ICacheId<?>, V extends ICacheable> extends
      */
     public V getCache(K cacheId);
 
+    /**
+     * 不阻塞调用线程的 {@linkplain #getCache(ICacheId)}。
+     * 强引用缓存命中时返回已经完成的结果，不切换线程；否则在executor中读取，同一个CacheId正在进行的加载会被共享。
+     * @param cacheId
+     * @param executor 未命中时执行加载的线程池
+     * @return
+     */
+    public CacheFuture<V> getCacheAsync(K cacheId, Executor executor);
+
+    /**
+     * 强引用缓存中是否已经有记录，不计入统计，也不改变淘汰顺序。不检查记录是否过期
+     * @param cacheId
+     * @return
+     */
+    public boolean containsCache(K cacheId);
+
     /**
      * 从缓存池中删除一个缓存
      * @param cacheId
@@ -35,4 +54,41 @@ public interface ICachePool<K extends ICacheId<?>, V extends ICacheable> extends
      */
     public void clearAllCache();
 
+    /**
+     * 在后台预加载一批缓存，已经在缓存中的会被跳过
+     * @param cacheIds
+     * @param priority 不同批次之间的优先级，数值越大越先执行
+     * @param maxConcurrency 本批次同时加载的数量上限
+     * @return 用于取消尚未开始的加载
+     */
+    public PrefetchHandle<K> prefetch(Collection<K> cacheIds, int priority, int maxConcurrency);
+
+    /**
+     * 系统内存紧张时释放部分或者全部缓存
+     * @param level {@linkplain android.content.ComponentCallbacks2} 中的TRIM_MEMORY_*
+     * @see CachePoolRegistry#retainFraction(int)
+     */
+    public void trimMemory(int level);
+
+    /**
+     * @return 缓存池的统计信息，随缓存池的使用实时更新
+     */
+    public CacheStats getStats();
+
+    /**
+     * 添加缓存记录被移出缓存池时的监听，包括淘汰、替换、过期和删除，原因见 {@linkplain RemovalCause}
+     * @param listener
+     * @param executor 执行回调的线程池，为null时在移除记录的线程上同步回调
+     */
+    public void addRemovalListener(IRemovalListener<? super K, ? super V> listener, Executor executor);
+
+    public void removeRemovalListener(IRemovalListener<? super K, ? super V> listener);
+
+    /**
+     * 设置写回：因为空间不足被淘汰的记录在后台线程中依次交给sink，例如写入磁盘缓存或者放入复用池，
+     * 淘汰记录的线程不会被阻塞。积压过多时新淘汰的记录不再写回。内存紧张时释放的记录（{@linkplain RemovalCause#TRIMMED}）不写回
+     * @param sink 为null表示关闭
+     */
+    public void setWriteBehind(IRemovalListener<? super K, ? super V> sink);
+
 }
@@ -0,0 +1,18 @@
+package com.infthink.libs.cache;
+
+/**
+ * 缓存记录被移出缓存池的监听
+ * @see ICachePool#addRemovalListener(IRemovalListener, java.util.concurrent.Executor)
+ * @see ICachePool#setWriteBehind(IRemovalListener)
+ */
+public interface IRemovalListener<K, V> {
+
+    /**
+     * 不在缓存的锁内调用，但同步回调时会阻塞移除记录的线程，耗时的工作应该使用异步回调
+     * @param cause 移除的原因
+     * @param key
+     * @param value 被移除的缓存对象
+     */
+    public void onRemoval(RemovalCause cause, K key, V value);
+
+}
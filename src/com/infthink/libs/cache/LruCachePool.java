@@ -1,13 +1,53 @@
 package com.infthink.libs.cache;
 
-import android.util.LruCache;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.os.Process;
+
+import com.infthink.libs.cache.policy.IEvictionPolicyFactory;
 
 /**
  * @see #getCache(ICacheId)
  * @see #removeCache(ICacheId)
  * @see #clearAllCache()
+ * @see #trimMemory(int)
  */
-public class LruCachePool<K extends ICacheId<V>, V extends ICacheable> extends LruCache<K, V> implements ICachePool<K, V> {
+public class LruCachePool<K extends ICacheId<V>, V extends ICacheable> extends SegmentedLruCache<K, V> implements ICachePool<K, V> {
+
+    /**
+     * 正在加载中的缓存，同一个CacheId的并发请求共享同一次加载
+     */
+    private final ConcurrentMap<K, LoadingTask<V>> mLoadings;
+    private final CacheStats mStats = new CacheStats();
+    private volatile NegativeCache<K> mNegativeCache;
+    private final RemovalNotifier<K, V> mRemovalNotifier = new RemovalNotifier<K, V>(new IRemovalListener<K, V>() {
+        @Override
+        public void onRemoval(RemovalCause cause, K key, V value) {
+            entryReleased(cause, key, value);
+        }
+    });
+    private final AtomicBoolean mRegistered = new AtomicBoolean();
+    /**
+     * 当前线程的 {@linkplain #load(ICacheId)} 中实际创建缓存对象的耗时，-1表示没有实际创建，见 {@linkplain #recordLoadCost(long)}
+     */
+    private static final ThreadLocal<long[]> sLoadCost = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[] { -1 };
+        }
+    };
+    /**
+     * 加入 {@linkplain CacheBudgetManager} 后记录被淘汰的key
+     */
+    volatile GhostKeys mGhostKeys;
 
     /**
      * @param maxSize 最大的强引用缓存的大小，强引用队列中的所有缓存对象的 {@linkplain #sizeOf(ICacheId, ICacheable)}}
@@ -15,6 +55,28 @@ public class LruCachePool<K extends ICacheId<V>, V extends ICacheable> extends L
      */
     public LruCachePool(int maxSize) {
         super(maxSize);
+        mLoadings = new ConcurrentHashMap<K, LoadingTask<V>>();
+    }
+
+    /**
+     * @param maxSize 同 {@linkplain #LruCachePool(int)}
+     * @param concurrencyLevel 预计同时读取缓存的线程数
+     * @see SegmentedLruCache#SegmentedLruCache(int, int)
+     */
+    public LruCachePool(int maxSize, int concurrencyLevel) {
+        super(maxSize, concurrencyLevel);
+        mLoadings = new ConcurrentHashMap<K, LoadingTask<V>>();
+    }
+
+    /**
+     * @param maxSize 同 {@linkplain #LruCachePool(int)}
+     * @param concurrencyLevel 预计同时读取缓存的线程数
+     * @param policyFactory 淘汰策略，为null时使用LRU，例如 {@linkplain com.infthink.libs.cache.policy.TinyLfuPolicy#FACTORY}，
+     *            按加载耗时和大小淘汰的 {@linkplain com.infthink.libs.cache.policy.GreedyDualSizePolicy#FACTORY}
+     */
+    public LruCachePool(int maxSize, int concurrencyLevel, IEvictionPolicyFactory policyFactory) {
+        super(maxSize, concurrencyLevel, policyFactory);
+        mLoadings = new ConcurrentHashMap<K, LoadingTask<V>>();
     }
 
     /**
@@ -22,12 +84,152 @@ public class LruCachePool<K extends ICacheId<V>, V extends ICacheable> extends L
      */
     @Override
     public V getCache(K cacheId) {
-        return super.get(cacheId);
+        register();
+        mStats.recordRequest();
+        // create()已经把加载的结果放入缓存，不使用get()再放入一次，避免把刚被其它线程淘汰的值重新放回缓存
+        V cacheable = lookup(cacheId);
+        return cacheable != null ? cacheable : create(cacheId);
+    }
+
+    @Override
+    public CacheFuture<V> getCacheAsync(final K cacheId, Executor executor) {
+        register();
+        V cacheable = peekCache(cacheId);
+        if (cacheable != null) {
+            mStats.recordRequest();
+            return CacheFuture.completed(cacheable);
+        }
+        if (isNegative(cacheId)) {
+            // 之前加载失败，还在退避时间内，不需要切换线程
+            mStats.recordRequest();
+            recordMemoryMiss(cacheId);
+            mStats.recordNegativeHit();
+            return CacheFuture.completed(null);
+        }
+        final CacheFuture<V> future = new CacheFuture<V>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    V cacheable = null;
+                    try {
+                        cacheable = getCache(cacheId);
+                    } catch (RuntimeException e) {
+                        if (DEBUG)
+                            e.printStackTrace();
+                    } finally {
+                        future.complete(cacheable);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (DEBUG)
+                e.printStackTrace();
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * 不阻塞地读取强引用中的缓存，{@linkplain #getCacheAsync(ICacheId, Executor)} 用它判断是否可以立即返回
+     * @param cacheId
+     * @return 不存在或者不能直接使用时返回null
+     */
+    protected V peekCache(K cacheId) {
+        return getIfPresent(cacheId);
+    }
+
+    @Override
+    public boolean containsCache(K cacheId) {
+        return contains(cacheId);
     }
 
     @Override
     public void removeCache(K cacheId) {
-        super.remove(cacheId);
+        NegativeCache<K> negativeCache = mNegativeCache;
+        if (negativeCache != null) {
+            negativeCache.remove(cacheId);
+        }
+        removeCache(cacheId, RemovalCause.EXPLICIT);
+    }
+
+    /**
+     * <pre>
+     * 开启加载失败的记录。{@linkplain #load(ICacheId)} 返回null或者抛出异常后，在退避时间内
+     * {@linkplain #getCache(ICacheId)} 直接返回null，不再重新加载，例如列表滑动时不会反复下载已知无效的图片地址。
+     * 连续失败时退避时间加倍，加载成功或者 {@linkplain #removeCache(ICacheId)} 后清除记录。
+     * </pre>
+     * @param maxCount 最多记录的CacheId数，小于等于0表示关闭
+     * @param ttl 第一次失败后的退避时间，单位毫秒
+     * @param maxTtl 退避时间的上限，单位毫秒
+     */
+    public void setNegativeCache(int maxCount, long ttl, long maxTtl) {
+        mNegativeCache = maxCount > 0 && ttl > 0 ? new NegativeCache<K>(maxCount, ttl, maxTtl) : null;
+    }
+
+    /**
+     * 清除所有加载失败的记录，例如网络恢复后立即重试
+     */
+    public void clearNegativeCache() {
+        NegativeCache<K> negativeCache = mNegativeCache;
+        if (negativeCache != null) {
+            negativeCache.clear();
+        }
+    }
+
+    private boolean isNegative(K cacheId) {
+        NegativeCache<K> negativeCache = mNegativeCache;
+        return negativeCache != null && negativeCache.isBlocked(cacheId, System.currentTimeMillis());
+    }
+
+    @Override
+    public void addRemovalListener(IRemovalListener<? super K, ? super V> listener, Executor executor) {
+        mRemovalNotifier.addListener(listener, executor);
+    }
+
+    @Override
+    public void removeRemovalListener(IRemovalListener<? super K, ? super V> listener) {
+        mRemovalNotifier.removeListener(listener);
+    }
+
+    @Override
+    public void setWriteBehind(IRemovalListener<? super K, ? super V> sink) {
+        mRemovalNotifier.setWriteBehind(sink);
+    }
+
+    /**
+     * @param cacheId
+     * @param cause 删除的原因，记录在统计信息中
+     */
+    protected void removeCache(K cacheId, RemovalCause cause) {
+        super.remove(cacheId, cause);
+    }
+
+    @Override
+    public PrefetchHandle<K> prefetch(Collection<K> cacheIds, int priority, int maxConcurrency) {
+        return new PrefetchHandle<K>(this, cacheIds, priority).start(maxConcurrency);
+    }
+
+    /**
+     * 按 {@linkplain CacheBudgetManager#retainFraction(LruCachePool, int)} 淘汰强引用中的记录，只保留容量上限的这一比例，容量上限不变。
+     * 按上限而不是当前大小计算，同一级别的重复回调不会一次比一次释放得更多。淘汰的原因为 {@linkplain RemovalCause#TRIMMED}
+     */
+    @Override
+    public void trimMemory(int level) {
+        float fraction = CacheBudgetManager.retainFraction(this, level);
+        if (fraction <= 0) {
+            clearAllCache();
+        } else if (fraction < 1) {
+            trimToSize((int) (maxSize() * fraction), RemovalCause.TRIMMED);
+        }
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return mStats;
     }
 
     @Override
@@ -35,9 +237,202 @@ public class LruCachePool<K extends ICacheId<V>, V extends ICacheable> extends L
         super.evictAll();
     }
 
+    /**
+     * 在锁外调用此方法，同一个CacheId的并发调用只会执行一次 {@linkplain #load(ICacheId)}，
+     * 其余的调用等待并共享这次加载的结果。
+     * 等待的线程优先级比加载的线程高时（例如前台的调用等待预加载线程中的同一个加载），临时提高加载线程的优先级，加载结束后恢复。
+     */
+    @Override
+    protected V create(final K cacheId) {
+        recordMemoryMiss(cacheId);
+        if (isNegative(cacheId)) {
+            mStats.recordNegativeHit();
+            return null;
+        }
+        LoadingTask<V> task = new LoadingTask<V>(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return load(cacheId);
+            }
+        });
+        LoadingTask<V> loading = mLoadings.putIfAbsent(cacheId, task);
+        if (loading != null) {
+            loading.boostPriority();
+        } else {
+            loading = task;
+            boolean success = false;
+            int priority = task.attachCurrentThread();
+            long[] loadCost = sLoadCost.get();
+            // load中可能嵌套其它缓存池的加载
+            long outerCost = loadCost[0];
+            loadCost[0] = -1;
+            try {
+                task.run();
+                V cacheable = getLoadResult(task);
+                if (cacheable != null) {
+                    success = true;
+                    // 先放入缓存再移除加载记录，避免后来的调用在两者之间再次加载
+                    super.put(cacheId, cacheable);
+                    // 由软引用等途径恢复的不是重建的代价，淘汰策略保留上一次的代价
+                    if (loadCost[0] >= 0) {
+                        recordCost(cacheId, loadCost[0]);
+                    }
+                }
+            } finally {
+                loadCost[0] = outerCost;
+                NegativeCache<K> negativeCache = mNegativeCache;
+                if (negativeCache != null) {
+                    if (success) {
+                        negativeCache.remove(cacheId);
+                    } else {
+                        negativeCache.recordFailure(cacheId, System.currentTimeMillis());
+                    }
+                }
+                mLoadings.remove(cacheId, task);
+                task.restorePriority(priority);
+            }
+        }
+        return getLoadResult(loading);
+    }
+
+    /**
+     * 强引用缓存未命中，因为空间不足被淘汰过的key再次未命中时计入 {@linkplain GhostKeys}
+     */
+    private void recordMemoryMiss(K cacheId) {
+        mStats.recordMemoryMiss();
+        GhostKeys ghostKeys = mGhostKeys;
+        if (ghostKeys != null) {
+            ghostKeys.recordMiss(cacheId);
+        }
+    }
+
+    /**
+     * 加载缓存对象，同一个CacheId同一时刻只会有一个线程执行此方法。
+     * 子类覆盖时需要自己通过 {@linkplain #getStats()} 记录命中和加载的统计。
+     * @param cacheId
+     * @return
+     */
+    protected V load(K cacheId) {
+        long start = System.nanoTime();
+        V cacheable = cacheId.createCache();
+        long cost = System.nanoTime() - start;
+        mStats.recordLoad(cacheable != null, cost);
+        recordLoadCost(cost);
+        return cacheable;
+    }
+
+    /**
+     * 子类覆盖 {@linkplain #load(ICacheId)} 时，在实际创建、读取磁盘或者下载缓存对象之后调用，
+     * 作为这条记录重建的代价交给 {@linkplain com.infthink.libs.cache.policy.ICostAwarePolicy}。
+     * 由软引用恢复或者由其它缓存生成时不要调用
+     * @param nanos 耗时的纳秒数
+     */
+    protected final void recordLoadCost(long nanos) {
+        sLoadCost.get()[0] = nanos;
+    }
+
+    /**
+     * 子类需要调用super，否则统计信息中不会记录移除的次数，也不会通知 {@linkplain IRemovalListener}
+     */
     @Override
-    protected V create(K cacheId) {
-        return cacheId.createCache();
+    protected void entryRemoved(RemovalCause cause, K key, V oldValue, V newValue) {
+        mStats.recordRemoval(cause);
+        GhostKeys ghostKeys = mGhostKeys;
+        if (ghostKeys != null && (cause == RemovalCause.SIZE || cause == RemovalCause.REJECTED)) {
+            ghostKeys.add(key);
+        }
+        // 同一个对象被重新放入时没有记录离开缓存
+        if (oldValue != newValue) {
+            mRemovalNotifier.notifyRemoval(cause, key, oldValue);
+        }
+    }
+
+    /**
+     * 正在执行的加载，记录执行加载的线程，等待的线程可以提高它的优先级
+     */
+    private static class LoadingTask<V> extends FutureTask<V> {
+
+        private volatile int mTid;
+        private volatile boolean mBoosted;
+
+        LoadingTask(Callable<V> callable) {
+            super(callable);
+        }
+
+        /**
+         * @return 当前线程原来的优先级
+         */
+        int attachCurrentThread() {
+            int tid = Process.myTid();
+            mTid = tid;
+            return Process.getThreadPriority(tid);
+        }
+
+        void boostPriority() {
+            int tid = mTid;
+            if (tid == 0 || isDone()) {
+                return;
+            }
+            try {
+                int priority = Process.getThreadPriority(Process.myTid());
+                // 数值越小优先级越高
+                if (priority < Process.getThreadPriority(tid)) {
+                    mBoosted = true;
+                    Process.setThreadPriority(tid, priority);
+                }
+            } catch (RuntimeException e) {
+                // 加载线程已经结束，或者没有权限
+                if (DEBUG)
+                    e.printStackTrace();
+            }
+        }
+
+        void restorePriority(int priority) {
+            mTid = 0;
+            if (mBoosted) {
+                Process.setThreadPriority(priority);
+            }
+        }
+
+    }
+
+    /**
+     * <pre>
+     * 记录被移除、并且写回的sink（如果有）已经处理完之后调用，此后缓存池和sink都不再使用value，子类可以在这里回收它占用的资源。
+     * 需要写回的记录在写回的后台线程中调用，其余的在 {@linkplain #entryRemoved(RemovalCause, ICacheId, Object, Object)} 中同步调用。
+     * 同一个对象被重新放入时不调用。
+     * </pre>
+     * @param cause
+     * @param key
+     * @param value
+     */
+    protected void entryReleased(RemovalCause cause, K key, V value) {
+    }
+
+    private V getLoadResult(FutureTask<V> loading) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return loading.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     @Override
@@ -47,7 +442,21 @@ public class LruCachePool<K extends ICacheId<V>, V extends ICacheable> extends L
 
     @Override
     public void putCache(K cacheId, V cacheable) {
+        register();
         super.put(cacheId, cacheable);
     }
 
+    /**
+     * <pre>
+     * 注册到 {@linkplain CachePoolRegistry}，内存紧张时统一释放。
+     * 第一次读取或者放入缓存时自动调用，不在构造方法中注册，避免子类的字段还没有初始化时就被其它线程调用trimMemory。
+     * 多次调用只注册一次。
+     * </pre>
+     */
+    public final void register() {
+        if (mRegistered.compareAndSet(false, true)) {
+            CachePoolRegistry.register(this);
+        }
+    }
+
 }
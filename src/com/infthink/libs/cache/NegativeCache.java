@@ -0,0 +1,100 @@
+package com.infthink.libs.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 记录加载失败的CacheId，在退避时间内不再重试。
+ * 连续失败时退避时间从ttl开始加倍，最长为maxTtl；加载成功后删除记录。
+ * 记录数超过上限时删除最久未失败的记录，所以失败的CacheId很多时只会少记住一些，不会占用更多内存。
+ * </pre>
+ * @see LruCachePool#setNegativeCache(int, long, long)
+ */
+public class NegativeCache<K> {
+
+    private final int mMaxCount;
+    private final long mTtl;
+    private final long mMaxTtl;
+    private final LinkedHashMap<K, Failure> mFailures;
+
+    private static final class Failure {
+
+        int count;
+        long retryTime;
+
+    }
+
+    /**
+     * @param maxCount 最多记录的CacheId数
+     * @param ttl 第一次失败后的退避时间，单位毫秒
+     * @param maxTtl 连续失败时退避时间的上限，单位毫秒
+     */
+    public NegativeCache(int maxCount, long ttl, long maxTtl) {
+        if (maxCount <= 0 || ttl <= 0) {
+            throw new IllegalArgumentException("maxCount <= 0 || ttl <= 0");
+        }
+        mMaxCount = maxCount;
+        mTtl = ttl;
+        mMaxTtl = Math.max(ttl, maxTtl);
+        mFailures = new LinkedHashMap<K, Failure>(16, 0.75f, false) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Failure> eldest) {
+                return size() > mMaxCount;
+            }
+
+        };
+    }
+
+    /**
+     * @param key
+     * @param now
+     * @return 是否还在退避时间内，此时不应该加载
+     */
+    public synchronized boolean isBlocked(K key, long now) {
+        Failure failure = mFailures.get(key);
+        return failure != null && now < failure.retryTime;
+    }
+
+    /**
+     * 记录一次加载失败，退避时间为 ttl * 2^(连续失败次数-1)，不超过maxTtl
+     * @param key
+     * @param now
+     * @return 下一次可以重试的时间
+     */
+    public synchronized long recordFailure(K key, long now) {
+        Failure failure = mFailures.remove(key);
+        if (failure == null) {
+            failure = new Failure();
+        }
+        failure.count++;
+        long ttl = mTtl;
+        for (int i = 1; i < failure.count && ttl < mMaxTtl; i++) {
+            ttl <<= 1;
+        }
+        failure.retryTime = now + Math.min(ttl, mMaxTtl);
+        // 重新放入，按最近失败的顺序排列
+        mFailures.put(key, failure);
+        return failure.retryTime;
+    }
+
+    /**
+     * 加载成功或者需要立即重试时调用
+     * @param key
+     */
+    public synchronized void remove(K key) {
+        mFailures.remove(key);
+    }
+
+    public synchronized void clear() {
+        mFailures.clear();
+    }
+
+    public synchronized int size() {
+        return mFailures.size();
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.infthink.libs.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.infthink.libs.common.utils.IDebuggable;
+
+/**
+ * <pre>
+ * 一批预加载任务，在最低优先级的预加载线程池中执行，不会占用前台加载的线程。
+ * 同一批任务最多同时执行maxConcurrency个，不同批次之间按优先级排队，优先级相同时先提交的先执行。
+ * 离开页面时调用 {@linkplain #cancel()}，尚未开始的任务不再执行。
+ * 已经在缓存中的记录用 {@linkplain ICachePool#containsCache(ICacheId)} 跳过，不计入请求和命中，也不会被提到最近使用；
+ * 其中过期的记录留给前台读取时重新验证。
+ * </pre>
+ * @see ICachePool#prefetch(Collection, int, int)
+ */
+public class PrefetchHandle<K extends ICacheId<?>> implements IDebuggable {
+
+    private static final String TAG = PrefetchHandle.class.getSimpleName();
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final ICachePool<K, ?> mPool;
+    private final Iterator<K> mPending;
+    private final int mPriority;
+    private final int mTotalCount;
+    private final AtomicInteger mFinishedCount = new AtomicInteger();
+    private volatile boolean mCancelled;
+
+    /**
+     * @param pool
+     * @param cacheIds
+     * @param priority 数值越大越先执行
+     */
+    PrefetchHandle(ICachePool<K, ?> pool, Collection<K> cacheIds, int priority) {
+        mPool = pool;
+        ArrayList<K> pending = new ArrayList<K>(cacheIds);
+        mPending = pending.iterator();
+        mTotalCount = pending.size();
+        mPriority = priority;
+    }
+
+    /**
+     * @param maxConcurrency 同时执行的任务数上限，至少为1
+     * @return this
+     */
+    PrefetchHandle<K> start(int maxConcurrency) {
+        for (int i = 0; i < Math.max(1, maxConcurrency); i++) {
+            if (!scheduleNext()) {
+                break;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 取消尚未开始的任务，正在执行的加载会继续完成，跳过的任务计入 {@linkplain #getFinishedCount()}
+     */
+    public void cancel() {
+        int skipped = 0;
+        synchronized (mPending) {
+            mCancelled = true;
+            while (mPending.hasNext()) {
+                mPending.next();
+                skipped++;
+            }
+        }
+        mFinishedCount.addAndGet(skipped);
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return 所有任务都已经执行或者被取消
+     */
+    public boolean isDone() {
+        return mFinishedCount.get() >= mTotalCount;
+    }
+
+    /**
+     * @return 已经结束的任务数，包括取消后跳过的任务
+     */
+    public int getFinishedCount() {
+        return mFinishedCount.get();
+    }
+
+    public int getTotalCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * @return 是否提交了新的任务
+     */
+    private boolean scheduleNext() {
+        K cacheId;
+        synchronized (mPending) {
+            if (mCancelled || !mPending.hasNext()) {
+                return false;
+            }
+            cacheId = mPending.next();
+        }
+        try {
+            CacheExecutors.prefetch().execute(new PrefetchTask(cacheId));
+            return true;
+        } catch (RejectedExecutionException e) {
+            // 没有执行的任务也算结束
+            mFinishedCount.incrementAndGet();
+            if (DEBUG)
+                e.printStackTrace();
+            return false;
+        }
+    }
+
+    private class PrefetchTask implements Runnable, Comparable<PrefetchTask> {
+
+        private final K mCacheId;
+        private final long mSequence = SEQUENCE.getAndIncrement();
+
+        PrefetchTask(K cacheId) {
+            mCacheId = cacheId;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!mCancelled && !mPool.containsCache(mCacheId)) {
+                    mPool.getCache(mCacheId);
+                }
+            } catch (RuntimeException e) {
+                if (DEBUG) {
+                    Log.d(TAG, String.format("预加载失败 %s", mCacheId.getClass().getName()));
+                    e.printStackTrace();
+                }
+            } finally {
+                // 前台的调用等待同一个加载时可能提高过当前线程的优先级
+                Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                mFinishedCount.incrementAndGet();
+                scheduleNext();
+            }
+        }
+
+        @Override
+        public int compareTo(PrefetchTask another) {
+            if (mPriority != another.priority()) {
+                return mPriority > another.priority() ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+
+        private int priority() {
+            return mPriority;
+        }
+
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.infthink.libs.cache;
+
+/**
+ * 缓存记录被移出缓存池的原因
+ */
+public enum RemovalCause {
+
+    /**
+     * 空间不足被淘汰
+     */
+    SIZE,
+
+    /**
+     * 新放入的记录没有通过淘汰策略的准入，放入后立即被淘汰，例如 {@linkplain com.infthink.libs.cache.policy.TinyLfuPolicy}。
+     * 这次get或者put的调用者仍然持有它，不能回收
+     */
+    REJECTED,
+
+    /**
+     * 被新的值替换
+     */
+    REPLACED,
+
+    /**
+     * 调用删除或者清空方法
+     */
+    EXPLICIT,
+
+    /**
+     * 已经过期
+     */
+    EXPIRED,
+
+    /**
+     * 内存紧张时被 {@linkplain ICachePool#trimMemory(int)} 释放
+     */
+    TRIMMED
+
+}
@@ -0,0 +1,178 @@
+package com.infthink.libs.cache;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+import com.infthink.libs.common.utils.IDebuggable;
+
+/**
+ * <pre>
+ * 把缓存记录的移除分发给 {@linkplain IRemovalListener}，并把空间不足被淘汰的记录排队交给写回的sink。
+ * 写回在 {@linkplain CacheExecutors#background()} 中由一个任务依次处理，积压超过上限时丢弃新淘汰的记录，
+ * 淘汰记录的线程不会被阻塞。
+ * 每条移除的记录最后交给releaseListener：需要写回的在sink处理完（或者被丢弃）之后，其余的立即交给它，之后缓存池不再使用这个对象。
+ * </pre>
+ */
+final class RemovalNotifier<K, V> implements IDebuggable {
+
+    private static final String TAG = RemovalNotifier.class.getSimpleName();
+    /**
+     * 写回队列中最多积压的记录数
+     */
+    private static final int MAX_PENDING_WRITES = 256;
+
+    private final IRemovalListener<? super K, ? super V> mReleaseListener;
+    private final List<Registration<K, V>> mRegistrations = new CopyOnWriteArrayList<Registration<K, V>>();
+    private volatile IRemovalListener<? super K, ? super V> mWriteBehind;
+    private final Queue<Removal<K, V>> mPendingWrites = new ConcurrentLinkedQueue<Removal<K, V>>();
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    private final AtomicBoolean mDraining = new AtomicBoolean();
+
+    private static final class Registration<K, V> {
+
+        final IRemovalListener<? super K, ? super V> listener;
+        final Executor executor;
+
+        Registration(IRemovalListener<? super K, ? super V> listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+    }
+
+    private static final class Removal<K, V> {
+
+        final K key;
+        final V value;
+
+        Removal(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+    }
+
+    RemovalNotifier(IRemovalListener<? super K, ? super V> releaseListener) {
+        mReleaseListener = releaseListener;
+    }
+
+    void addListener(IRemovalListener<? super K, ? super V> listener, Executor executor) {
+        if (listener == null) {
+            throw new NullPointerException("listener == null");
+        }
+        mRegistrations.add(new Registration<K, V>(listener, executor));
+    }
+
+    void removeListener(IRemovalListener<? super K, ? super V> listener) {
+        for (Registration<K, V> registration : mRegistrations) {
+            if (registration.listener == listener) {
+                mRegistrations.remove(registration);
+            }
+        }
+    }
+
+    void setWriteBehind(IRemovalListener<? super K, ? super V> sink) {
+        mWriteBehind = sink;
+    }
+
+    IRemovalListener<? super K, ? super V> getWriteBehind() {
+        return mWriteBehind;
+    }
+
+    void notifyRemoval(final RemovalCause cause, final K key, final V value) {
+        if (value == null) {
+            return;
+        }
+        for (final Registration<K, V> registration : mRegistrations) {
+            if (registration.executor == null) {
+                dispatch(registration.listener, cause, key, value);
+                continue;
+            }
+            try {
+                registration.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch(registration.listener, cause, key, value);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                if (DEBUG)
+                    e.printStackTrace();
+            }
+        }
+        if (cause != RemovalCause.SIZE || mWriteBehind == null || !enqueueWrite(key, value)) {
+            dispatch(mReleaseListener, cause, key, value);
+        }
+    }
+
+    /**
+     * @return 队列已满被丢弃时返回false
+     */
+    private boolean enqueueWrite(K key, V value) {
+        if (mPendingCount.incrementAndGet() > MAX_PENDING_WRITES) {
+            mPendingCount.decrementAndGet();
+            if (DEBUG)
+                Log.d(TAG, String.format("写回队列已满，丢弃 %s", key));
+            return false;
+        }
+        mPendingWrites.offer(new Removal<K, V>(key, value));
+        scheduleDrain();
+        return true;
+    }
+
+    private void scheduleDrain() {
+        if (!mDraining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            CacheExecutors.background().execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mDraining.set(false);
+            if (DEBUG)
+                e.printStackTrace();
+        }
+    }
+
+    private void drain() {
+        try {
+            Removal<K, V> removal;
+            while ((removal = mPendingWrites.poll()) != null) {
+                mPendingCount.decrementAndGet();
+                IRemovalListener<? super K, ? super V> sink = mWriteBehind;
+                if (sink != null) {
+                    dispatch(sink, RemovalCause.SIZE, removal.key, removal.value);
+                }
+                dispatch(mReleaseListener, RemovalCause.SIZE, removal.key, removal.value);
+            }
+        } finally {
+            mDraining.set(false);
+        }
+        // 结束前放入的记录需要再处理一次
+        if (!mPendingWrites.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private void dispatch(IRemovalListener<? super K, ? super V> listener, RemovalCause cause, K key, V value) {
+        try {
+            listener.onRemoval(cause, key, value);
+        } catch (RuntimeException e) {
+            if (DEBUG)
+                e.printStackTrace();
+        }
+    }
+
+}
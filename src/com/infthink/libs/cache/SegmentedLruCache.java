@@ -0,0 +1,649 @@
+package com.infthink.libs.cache;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.infthink.libs.cache.policy.ICostAwarePolicy;
+import com.infthink.libs.cache.policy.IEvictionPolicy;
+import com.infthink.libs.cache.policy.IEvictionPolicyFactory;
+
+/**
+ * <pre>
+ * 分段加锁的LRU缓存，接口与 {@linkplain android.util.LruCache} 保持一致。
+ * 缓存按key的hash分为多个段，每个段有自己的锁和访问顺序，访问不同段的线程之间不会互相阻塞。
+ * 所有段共用一个容量上限。每条记录保存一个全局递增的访问序号，段内的访问顺序与序号的顺序一致，
+ * 超出上限时比较各个段最久未访问的记录，淘汰其中序号最小的，即全局最久未访问的记录。
+ * 淘汰在一个单独的锁内依次进行，并发的多次淘汰不会淘汰多于需要的记录。
+ * 也可以通过 {@linkplain IEvictionPolicyFactory} 指定其它的淘汰策略，所有段共用一个策略实例，策略看到的是全局的访问和淘汰顺序，
+ * 代价是每次访问都需要短暂地获取策略的锁。
+ * 与LruCache相同，{@linkplain #create(Object)} 在锁外调用，{@linkplain #sizeOf(Object, Object)} 的返回值在记录存在期间不能改变。
+ * 不同的是 {@linkplain #entryRemoved(RemovalCause, Object, Object, Object)} 会给出记录被移除的原因。
+ * </pre>
+ */
+public class SegmentedLruCache<K, V> {
+
+    /**
+     * 默认的并发级别，即段的数量
+     */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final int MAXIMUM_SEGMENTS = 1 << 8;
+
+    private final Segment<K, V>[] mSegments;
+    private final int mSegmentShift;
+    private final AtomicInteger mSize;
+    /**
+     * 所有段共用的淘汰策略，为null时使用全局LRU。策略的所有方法都在它自己的锁内调用，需要时嵌套在段锁内
+     */
+    private final IEvictionPolicy<K> mPolicy;
+    /**
+     * 全局的访问序号
+     */
+    private final AtomicLong mClock = new AtomicLong();
+    /**
+     * 同一时刻只有一个线程淘汰记录
+     */
+    private final Object mTrimLock = new Object();
+    private volatile int mMaxSize;
+
+    /**
+     * @param maxSize 所有缓存对象的 {@linkplain #sizeOf(Object, Object)} 之和的上限
+     */
+    public SegmentedLruCache(int maxSize) {
+        this(maxSize, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param maxSize 所有缓存对象的 {@linkplain #sizeOf(Object, Object)} 之和的上限
+     * @param concurrencyLevel 预计同时访问缓存的线程数，段的数量为不小于此值的2的幂
+     */
+    public SegmentedLruCache(int maxSize, int concurrencyLevel) {
+        this(maxSize, concurrencyLevel, null);
+    }
+
+    /**
+     * @param maxSize 所有缓存对象的 {@linkplain #sizeOf(Object, Object)} 之和的上限
+     * @param concurrencyLevel 预计同时访问缓存的线程数，段的数量为不小于此值的2的幂
+     * @param policyFactory 淘汰策略，为null表示使用LRU
+     */
+    @SuppressWarnings("unchecked")
+    public SegmentedLruCache(int maxSize, int concurrencyLevel, IEvictionPolicyFactory policyFactory) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel <= 0");
+        }
+        int segmentCount = 1;
+        int shift = 0;
+        while (segmentCount < concurrencyLevel && segmentCount < MAXIMUM_SEGMENTS) {
+            segmentCount <<= 1;
+            shift++;
+        }
+        mSegmentShift = 32 - shift;
+        mSegments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            mSegments[i] = new Segment<K, V>();
+        }
+        mPolicy = policyFactory == null ? null : policyFactory.<K> createPolicy();
+        mSize = new AtomicInteger();
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 返回缓存的值，如果不存在会调用 {@linkplain #create(Object)} 创建。
+     * @param key
+     * @return
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        V mapValue = lookup(key);
+        if (mapValue != null) {
+            return mapValue;
+        }
+
+        V createdValue = create(key);
+        Segment<K, V> segment = segmentFor(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        synchronized (segment) {
+            segment.createCount++;
+            // 其它线程已经放入了值时使用已有的值
+            mapValue = access(segment, key);
+            if (mapValue == null) {
+                int size = safeSizeOf(key, createdValue);
+                segment.map.put(key, new Node<V>(createdValue, mClock.incrementAndGet()));
+                addSize(segment, size);
+                onPolicyInsert(key, size);
+            }
+        }
+
+        if (mapValue != null) {
+            if (mapValue != createdValue) {
+                entryRemoved(RemovalCause.REPLACED, key, createdValue, mapValue);
+            }
+            return mapValue;
+        }
+        trimToSize(mMaxSize, RemovalCause.SIZE, key);
+        return createdValue;
+    }
+
+    /**
+     * 只读取已有的记录，计入命中和未命中，不会调用 {@linkplain #create(Object)}
+     * @param key
+     * @return 不存在时返回null
+     */
+    protected final V lookup(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            V mapValue = access(segment, key);
+            if (mapValue != null) {
+                segment.hitCount++;
+            } else {
+                segment.missCount++;
+            }
+            return mapValue;
+        }
+    }
+
+    /**
+     * 返回缓存的值，不存在时不会创建，也不计入未命中
+     * @param key
+     * @return 不存在时返回null
+     */
+    public final V getIfPresent(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            V mapValue = access(segment, key);
+            if (mapValue != null) {
+                segment.hitCount++;
+            }
+            return mapValue;
+        }
+    }
+
+    /**
+     * 只检查记录是否存在，不计入命中，也不改变淘汰顺序。段按访问排序，get会把记录移到最近访问的位置，只能用containsKey
+     * @param key
+     * @return
+     */
+    public final boolean contains(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.map.containsKey(key);
+        }
+    }
+
+    /**
+     * @param key
+     * @param value
+     * @return 被替换的旧值
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        Segment<K, V> segment = segmentFor(key);
+        V previous;
+        synchronized (segment) {
+            segment.putCount++;
+            int size = safeSizeOf(key, value);
+            addSize(segment, size);
+            Node<V> old = segment.map.put(key, new Node<V>(value, mClock.incrementAndGet()));
+            previous = old == null ? null : old.value;
+            if (previous != null) {
+                addSize(segment, -safeSizeOf(key, previous));
+            }
+            onPolicyInsert(key, size);
+        }
+
+        if (previous != null && previous != value) {
+            entryRemoved(RemovalCause.REPLACED, key, previous, value);
+        }
+        trimToSize(mMaxSize, RemovalCause.SIZE, key);
+        return previous;
+    }
+
+    /**
+     * @param key
+     * @return 被删除的值
+     */
+    public final V remove(K key) {
+        return remove(key, RemovalCause.EXPLICIT);
+    }
+
+    /**
+     * @param key
+     * @param cause 传给 {@linkplain #entryRemoved(RemovalCause, Object, Object, Object)} 的原因
+     * @return 被删除的值
+     */
+    protected final V remove(K key, RemovalCause cause) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Segment<K, V> segment = segmentFor(key);
+        V previous;
+        synchronized (segment) {
+            Node<V> node = segment.map.remove(key);
+            previous = node == null ? null : node.value;
+            if (previous != null) {
+                addSize(segment, -safeSizeOf(key, previous));
+                onPolicyRemove(key);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(cause, key, previous, null);
+        }
+        return previous;
+    }
+
+    /**
+     * 只有key当前对应的值是value时才删除
+     * @param key
+     * @param value
+     * @param cause 传给 {@linkplain #entryRemoved(RemovalCause, Object, Object, Object)} 的原因
+     * @return 是否删除
+     */
+    protected final boolean remove(K key, V value, RemovalCause cause) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Node<V> node = segment.map.get(key);
+            if (node == null || node.value != value) {
+                return false;
+            }
+            segment.map.remove(key);
+            addSize(segment, -safeSizeOf(key, value));
+            onPolicyRemove(key);
+        }
+        entryRemoved(cause, key, value, null);
+        return true;
+    }
+
+    /**
+     * 淘汰记录，直到所有缓存对象的size之和不超过maxSize。
+     * 默认淘汰全局最久未访问的记录；指定了淘汰策略时淘汰策略选择的记录。
+     * @param maxSize 为-1时淘汰所有记录
+     */
+    public void trimToSize(int maxSize) {
+        trimToSize(maxSize, RemovalCause.SIZE, null);
+    }
+
+    /**
+     * @param maxSize
+     * @param cause 通知 {@linkplain #entryRemoved(RemovalCause, Object, Object, Object)} 的原因，例如内存紧张时为 {@linkplain RemovalCause#TRIMMED}
+     */
+    protected final void trimToSize(int maxSize, RemovalCause cause) {
+        trimToSize(maxSize, cause, null);
+    }
+
+    /**
+     * @param keep 正在被get或者put放入的记录。默认的LRU不会在同一次操作中淘汰它，它是唯一可以淘汰的记录时暂时超出上限，由之后的操作淘汰；
+     *            淘汰策略选中它时表示它没有通过准入，仍然立即淘汰，原因为 {@linkplain RemovalCause#REJECTED}，保证不超出上限
+     */
+    private void trimToSize(int maxSize, RemovalCause cause, K keep) {
+        synchronized (mTrimLock) {
+            while (mSize.get() > maxSize) {
+                K key = null;
+                long stamp = Long.MAX_VALUE;
+                Segment<K, V> segment = null;
+                if (mPolicy != null) {
+                    synchronized (mPolicy) {
+                        key = mPolicy.victim();
+                    }
+                }
+                RemovalCause removalCause = cause;
+                if (key != null && key.equals(keep)) {
+                    // 调用者仍然持有这个值，不能按空间不足回收
+                    removalCause = RemovalCause.REJECTED;
+                }
+                if (key != null) {
+                    segment = segmentFor(key);
+                } else {
+                    for (Segment<K, V> candidate : mSegments) {
+                        synchronized (candidate) {
+                            Map.Entry<K, Node<V>> eldest = eldest(candidate);
+                            // keep刚刚被访问，只有在它是段中唯一的记录时才会是最久未访问的
+                            if (eldest != null && eldest.getValue().stamp < stamp && !eldest.getKey().equals(keep)) {
+                                stamp = eldest.getValue().stamp;
+                                segment = candidate;
+                            }
+                        }
+                    }
+                    if (segment == null) {
+                        break;
+                    }
+                }
+                V value;
+                synchronized (segment) {
+                    // 在删除前再检查一次，其它线程可能在这期间删除了记录
+                    if (mSize.get() <= maxSize) {
+                        break;
+                    }
+                    if (key == null) {
+                        Map.Entry<K, Node<V>> eldest = eldest(segment);
+                        if (eldest == null || eldest.getValue().stamp != stamp) {
+                            // 选出之后被访问或者删除了，重新选择
+                            continue;
+                        }
+                        key = eldest.getKey();
+                    }
+                    Node<V> node = segment.map.remove(key);
+                    if (node == null) {
+                        // 策略选出的记录已经被其它线程删除，同步一次策略的状态后重新选择
+                        onPolicyRemove(key);
+                        continue;
+                    }
+                    value = node.value;
+                    addSize(segment, -safeSizeOf(key, value));
+                    onPolicyRemove(key);
+                    segment.evictionCount++;
+                }
+                entryRemoved(removalCause, key, value, null);
+            }
+        }
+    }
+
+    /**
+     * 告诉淘汰策略重新创建一条已有记录的代价，只有 {@linkplain ICostAwarePolicy} 会使用，记录不存在时忽略
+     * @param key
+     * @param cost 创建代价，例如加载耗时的纳秒数
+     */
+    @SuppressWarnings("unchecked")
+    protected final void recordCost(K key, long cost) {
+        Segment<K, V> segment = segmentFor(key);
+        if (!(mPolicy instanceof ICostAwarePolicy)) {
+            return;
+        }
+        synchronized (segment) {
+            if (segment.map.containsKey(key)) {
+                synchronized (mPolicy) {
+                    ((ICostAwarePolicy<K>) mPolicy).onCost(key, cost);
+                }
+            }
+        }
+    }
+
+    /**
+     * 修改容量上限，如果当前的size超过新的上限会立即淘汰
+     * @param maxSize
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        trimToSize(maxSize, RemovalCause.SIZE, null);
+    }
+
+    /**
+     * 当记录被淘汰、删除或者被put替换时调用，调用时不持有锁。
+     * @param cause 空间不足被淘汰时为 {@linkplain RemovalCause#SIZE}，新放入的记录没有通过准入时为 {@linkplain RemovalCause#REJECTED}，内存紧张时被释放为 {@linkplain RemovalCause#TRIMMED}，被put替换时为 {@linkplain RemovalCause#REPLACED}，
+     * 被 {@linkplain #remove(Object)} 删除或者 {@linkplain #evictAll()} 清空时为 {@linkplain RemovalCause#EXPLICIT}
+     * @param key
+     * @param oldValue
+     * @param newValue 被替换时为新值，否则为null
+     */
+    protected void entryRemoved(RemovalCause cause, K key, V oldValue, V newValue) {
+    }
+
+    /**
+     * 缓存未命中时调用，调用时不持有锁。
+     * @param key
+     * @return 返回null表示无法创建
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * @param key
+     * @param value
+     * @return 缓存对象的大小，在记录存在期间不能改变。默认为1，即按记录条数计算
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * 淘汰所有的记录
+     */
+    public final void evictAll() {
+        trimToSize(-1, RemovalCause.EXPLICIT, null);
+    }
+
+    public final int size() {
+        return mSize.get();
+    }
+
+    public final int maxSize() {
+        return mMaxSize;
+    }
+
+    public final int hitCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                count += segment.hitCount;
+            }
+        }
+        return count;
+    }
+
+    public final int missCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                count += segment.missCount;
+            }
+        }
+        return count;
+    }
+
+    public final int createCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                count += segment.createCount;
+            }
+        }
+        return count;
+    }
+
+    public final int putCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                count += segment.putCount;
+            }
+        }
+        return count;
+    }
+
+    public final int evictionCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                count += segment.evictionCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 当前所有记录的拷贝，按最久未访问到最近访问的顺序排列
+     */
+    public final Map<K, V> snapshot() {
+        List<Map.Entry<K, Node<V>>> entries = entriesByStamp();
+        Map<K, V> snapshot = new LinkedHashMap<K, V>();
+        for (Map.Entry<K, Node<V>> entry : entries) {
+            snapshot.put(entry.getKey(), entry.getValue().value);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @param maxCount 最多返回的记录数
+     * @return 最近访问的记录的拷贝，按最近访问到较久未访问的顺序排列
+     */
+    public final Map<K, V> hottest(int maxCount) {
+        List<Map.Entry<K, Node<V>>> entries = entriesByStamp();
+        Map<K, V> hottest = new LinkedHashMap<K, V>();
+        for (int i = entries.size() - 1; i >= 0 && hottest.size() < maxCount; i--) {
+            Map.Entry<K, Node<V>> entry = entries.get(i);
+            hottest.put(entry.getKey(), entry.getValue().value);
+        }
+        return hottest;
+    }
+
+    /**
+     * @return 所有记录的拷贝，按访问序号从小到大排列
+     */
+    private List<Map.Entry<K, Node<V>>> entriesByStamp() {
+        List<Map.Entry<K, Node<V>>> entries = new ArrayList<Map.Entry<K, Node<V>>>(Math.max(16, mSize.get()));
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                for (Map.Entry<K, Node<V>> entry : segment.map.entrySet()) {
+                    // 访问序号之后可能被修改，复制一份
+                    Node<V> node = entry.getValue();
+                    entries.add(new AbstractMap.SimpleImmutableEntry<K, Node<V>>(entry.getKey(), new Node<V>(node.value, node.stamp)));
+                }
+            }
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<K, Node<V>>>() {
+            @Override
+            public int compare(Map.Entry<K, Node<V>> lhs, Map.Entry<K, Node<V>> rhs) {
+                long l = lhs.getValue().stamp;
+                long r = rhs.getValue().stamp;
+                return l < r ? -1 : l == r ? 0 : 1;
+            }
+        });
+        return entries;
+    }
+
+    @Override
+    public final String toString() {
+        int hitCount = hitCount();
+        int accesses = hitCount + missCount();
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("SegmentedLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%,segments=%d]", mMaxSize, hitCount, accesses - hitCount, hitPercent,
+                mSegments.length);
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        if (mSegments.length == 1) {
+            return mSegments[0];
+        }
+        int h = key.hashCode();
+        // 与ConcurrentHashMap相同的再hash，避免低质量的hashCode集中在少数几个段
+        h += (h << 15) ^ 0xffffcd7d;
+        h ^= (h >>> 10);
+        h += (h << 3);
+        h ^= (h >>> 6);
+        h += (h << 2) + (h << 14);
+        h ^= (h >>> 16);
+        return mSegments[h >>> mSegmentShift];
+    }
+
+    /**
+     * 在段锁内读取记录并更新访问顺序和访问序号
+     */
+    private V access(Segment<K, V> segment, K key) {
+        Node<V> node = segment.map.get(key);
+        if (node == null) {
+            return null;
+        }
+        node.stamp = mClock.incrementAndGet();
+        if (mPolicy != null) {
+            synchronized (mPolicy) {
+                mPolicy.onAccess(key);
+            }
+        }
+        return node.value;
+    }
+
+    private void onPolicyInsert(K key, int size) {
+        if (mPolicy != null) {
+            synchronized (mPolicy) {
+                mPolicy.onInsert(key, size);
+            }
+        }
+    }
+
+    private void onPolicyRemove(K key) {
+        if (mPolicy != null) {
+            synchronized (mPolicy) {
+                mPolicy.onRemove(key);
+            }
+        }
+    }
+
+    private static <K, V> Map.Entry<K, Node<V>> eldest(Segment<K, V> segment) {
+        Iterator<Map.Entry<K, Node<V>>> iterator = segment.map.entrySet().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private void addSize(Segment<K, V> segment, int delta) {
+        segment.size += delta;
+        mSize.addAndGet(delta);
+    }
+
+    private static final class Node<V> {
+
+        final V value;
+        /**
+         * 最近一次访问的全局序号，由段锁保护
+         */
+        long stamp;
+
+        Node(V value, long stamp) {
+            this.value = value;
+            this.stamp = stamp;
+        }
+
+    }
+
+    private static final class Segment<K, V> {
+
+        final LinkedHashMap<K, Node<V>> map = new LinkedHashMap<K, Node<V>>(16, 0.75f, true);
+        int size;
+        int hitCount;
+        int missCount;
+        int createCount;
+        int putCount;
+        int evictionCount;
+
+    }
+
+}
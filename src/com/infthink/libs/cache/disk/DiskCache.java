@@ -0,0 +1,418 @@
+package com.infthink.libs.cache.disk;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+import com.infthink.libs.common.utils.FileUtils;
+import com.infthink.libs.common.utils.IDebuggable;
+import com.infthink.libs.common.utils.IOUtils;
+
+/**
+ * <pre>
+ * 基于文件的缓存，按最近最少使用的顺序淘汰，所有文件的大小之和不会超过maxSize。
+ * 每条记录保存为目录中的一个文件，操作记录写入journal文件，进程重启后通过journal恢复访问顺序。
+ *
+ * journal格式:
+ * com.infthink.libs.cache.disk.DiskCache
+ * 1
+ *
+ * PUT 3400330d1dfc7f3f7f4b8d4d803dfcf6 4096
+ * READ 3400330d1dfc7f3f7f4b8d4d803dfcf6
+ * DEL 3400330d1dfc7f3f7f4b8d4d803dfcf6
+ * </pre>
+ * 第一次访问时才会读取journal，所以可以在UI线程中创建，但读写方法都是非UI方法。
+ */
+public class DiskCache implements IDebuggable {
+
+    private static final String TAG = DiskCache.class.getSimpleName();
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String MAGIC = DiskCache.class.getName();
+    private static final String VERSION = "1";
+    private static final String PUT = "PUT";
+    private static final String READ = "READ";
+    private static final String DEL = "DEL";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+    private static final AtomicInteger TMP_SEQUENCE = new AtomicInteger();
+
+    private final File mDirectory;
+    private final File mJournalFile;
+    private final long mMaxSize;
+    /** 文件名 -> 文件大小，按访问顺序排列 */
+    private final LinkedHashMap<String, Long> mEntries;
+    private long mSize;
+    private int mRedundantOpCount;
+    private Writer mJournalWriter;
+    private boolean mOpened;
+
+    /**
+     * @param directory 缓存目录，此目录应该只被一个DiskCache使用
+     * @param maxSize 所有缓存文件大小之和的上限，以字节为单位
+     */
+    public DiskCache(File directory, long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mDirectory = directory;
+        mJournalFile = new File(directory, JOURNAL_FILE);
+        mMaxSize = maxSize;
+        mEntries = new LinkedHashMap<String, Long>(0, 0.75f, true);
+    }
+
+    /**
+     * 非UI方法
+     * @param key
+     * @return 如果没有找到或者读取失败，返回null
+     */
+    public byte[] get(String key) {
+        String name = toFilename(key);
+        if (name == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (!openIfNeed() || !mEntries.containsKey(name)) {
+                return null;
+            }
+            mEntries.get(name);
+            appendJournal(READ, name, -1);
+        }
+        // 在锁外读取文件，文件在读取过程中被替换或者删除不会影响已经打开的文件
+        File file = new File(mDirectory, name);
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(file);
+            return IOUtils.readBytes(fis);
+        } catch (IOException e) {
+            if (DEBUG)
+                Log.d(TAG, String.format("读取缓存文件失败 key:%s, file:%s", key, file));
+            synchronized (this) {
+                removeEntry(name);
+            }
+        } finally {
+            IOUtils.close(fis);
+        }
+        return null;
+    }
+
+    /**
+     * 非UI方法，此方法会覆盖旧的缓存记录
+     * @param key
+     * @param data
+     */
+    public void put(String key, byte[] data) {
+        String name = toFilename(key);
+        if (name == null || data == null) {
+            return;
+        }
+        if (data.length > mMaxSize) {
+            remove(key);
+            return;
+        }
+        synchronized (this) {
+            if (!openIfNeed()) {
+                return;
+            }
+        }
+        // 先写入临时文件再重命名，保证缓存文件总是完整的
+        File tmp = new File(mDirectory, name + "." + TMP_SEQUENCE.incrementAndGet() + TMP_SUFFIX);
+        FileOutputStream fos = null;
+        boolean written = false;
+        try {
+            fos = new FileOutputStream(tmp);
+            fos.write(data);
+            fos.flush();
+            written = true;
+        } catch (IOException e) {
+            if (DEBUG)
+                Log.d(TAG, String.format("写入缓存文件失败 key:%s, file:%s", key, tmp));
+        } finally {
+            IOUtils.close(fos);
+        }
+        synchronized (this) {
+            if (!written || !tmp.renameTo(new File(mDirectory, name))) {
+                FileUtils.deleteQuietly(tmp);
+                removeEntry(name);
+                return;
+            }
+            Long old = mEntries.put(name, Long.valueOf(data.length));
+            if (old != null) {
+                mSize -= old.longValue();
+                mRedundantOpCount++;
+            }
+            mSize += data.length;
+            appendJournal(PUT, name, data.length);
+            trimToSize();
+            compactJournalIfNeed();
+        }
+    }
+
+    /**
+     * 非UI方法
+     * @param key
+     */
+    public synchronized void remove(String key) {
+        String name = toFilename(key);
+        if (name != null && openIfNeed()) {
+            removeEntry(name);
+            compactJournalIfNeed();
+        }
+    }
+
+    /**
+     * 非UI方法，删除所有的缓存文件
+     */
+    public synchronized void clear() {
+        IOUtils.close(mJournalWriter);
+        mJournalWriter = null;
+        mEntries.clear();
+        mSize = 0;
+        mRedundantOpCount = 0;
+        mOpened = false;
+        FileUtils.deleteQuietly(mDirectory);
+    }
+
+    /**
+     * @return 当前所有缓存文件的大小之和
+     */
+    public synchronized long size() {
+        openIfNeed();
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * 关闭journal，之后的访问会重新打开
+     */
+    public synchronized void close() {
+        IOUtils.close(mJournalWriter);
+        mJournalWriter = null;
+        mEntries.clear();
+        mSize = 0;
+        mOpened = false;
+    }
+
+    private boolean openIfNeed() {
+        if (mOpened) {
+            return mJournalWriter != null;
+        }
+        mOpened = true;
+        FileUtils.forceMkdir(mDirectory);
+        if (mJournalFile.exists()) {
+            try {
+                readJournal();
+                deleteUnknownFiles();
+                mJournalWriter = new BufferedWriter(new FileWriter(mJournalFile, true));
+                compactJournalIfNeed();
+                return mJournalWriter != null;
+            } catch (IOException e) {
+                if (DEBUG)
+                    Log.d(TAG, String.format("journal已损坏，清空缓存目录 %s", mDirectory));
+                IOUtils.close(mJournalWriter);
+                mJournalWriter = null;
+                mEntries.clear();
+                mSize = 0;
+                FileUtils.deleteQuietly(mDirectory);
+                FileUtils.forceMkdir(mDirectory);
+            }
+        }
+        rebuildJournal();
+        return mJournalWriter != null;
+    }
+
+    private void readJournal() throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(mJournalFile));
+        try {
+            String magic = reader.readLine();
+            String version = reader.readLine();
+            String blank = reader.readLine();
+            if (!MAGIC.equals(magic) || !VERSION.equals(version) || !"".equals(blank)) {
+                throw new IOException(String.format("journal头错误 [%s, %s, %s]", magic, version, blank));
+            }
+            int lineCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    // 进程在写入过程中被杀死，丢弃最后一行不完整的记录
+                    continue;
+                }
+                String name = parts[1];
+                if (PUT.equals(parts[0]) && parts.length == 3) {
+                    long length;
+                    try {
+                        length = Long.parseLong(parts[2]);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    Long old = mEntries.put(name, Long.valueOf(length));
+                    if (old != null) {
+                        mSize -= old.longValue();
+                    }
+                    mSize += length;
+                } else if (READ.equals(parts[0])) {
+                    mEntries.get(name);
+                } else if (DEL.equals(parts[0])) {
+                    Long old = mEntries.remove(name);
+                    if (old != null) {
+                        mSize -= old.longValue();
+                    }
+                }
+            }
+            mRedundantOpCount = lineCount - mEntries.size();
+        } finally {
+            IOUtils.close(reader);
+        }
+    }
+
+    /**
+     * 删除journal中没有记录的文件（临时文件、丢失记录的文件），以及丢失文件的记录
+     */
+    private void deleteUnknownFiles() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            File file = new File(mDirectory, entry.getKey());
+            if (!file.isFile() || file.length() != entry.getValue().longValue()) {
+                FileUtils.deleteQuietly(file);
+                mSize -= entry.getValue().longValue();
+                iterator.remove();
+            }
+        }
+        Set<String> known = new HashSet<String>(mEntries.keySet());
+        known.add(JOURNAL_FILE);
+        String[] names = mDirectory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (!known.contains(name)) {
+                    FileUtils.deleteQuietly(new File(mDirectory, name));
+                }
+            }
+        }
+    }
+
+    private void rebuildJournal() {
+        IOUtils.close(mJournalWriter);
+        mJournalWriter = null;
+        File tmp = new File(mDirectory, JOURNAL_FILE_TMP);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(tmp));
+            writer.write(MAGIC);
+            writer.write("\n");
+            writer.write(VERSION);
+            writer.write("\n\n");
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(PUT + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            if (DEBUG)
+                e.printStackTrace();
+            IOUtils.close(writer);
+            FileUtils.deleteQuietly(tmp);
+            return;
+        } finally {
+            IOUtils.close(writer);
+        }
+        if (!tmp.renameTo(mJournalFile)) {
+            if (DEBUG)
+                Log.d(TAG, String.format("重命名journal失败 %s", tmp));
+            FileUtils.deleteQuietly(tmp);
+            return;
+        }
+        mRedundantOpCount = 0;
+        try {
+            mJournalWriter = new BufferedWriter(new FileWriter(mJournalFile, true));
+        } catch (IOException e) {
+            if (DEBUG)
+                e.printStackTrace();
+        }
+    }
+
+    private void compactJournalIfNeed() {
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private void appendJournal(String op, String name, long length) {
+        if (mJournalWriter == null) {
+            return;
+        }
+        try {
+            mJournalWriter.write(length < 0 ? op + " " + name + "\n" : op + " " + name + " " + length + "\n");
+            mJournalWriter.flush();
+            if (!PUT.equals(op)) {
+                mRedundantOpCount++;
+            }
+        } catch (IOException e) {
+            if (DEBUG)
+                e.printStackTrace();
+        }
+    }
+
+    private void removeEntry(String name) {
+        Long old = mEntries.remove(name);
+        if (old != null) {
+            mSize -= old.longValue();
+            appendJournal(DEL, name, -1);
+        }
+        File file = new File(mDirectory, name);
+        if (file.exists() && !file.delete()) {
+            if (DEBUG)
+                Log.d(TAG, "删除缓存文件失败 " + file);
+        }
+    }
+
+    private void trimToSize() {
+        while (mSize > mMaxSize && !mEntries.isEmpty()) {
+            String eldest = mEntries.keySet().iterator().next();
+            removeEntry(eldest);
+        }
+    }
+
+    /**
+     * 将key转换为只包含[0-9a-f]的文件名
+     */
+    private static String toFilename(String key) {
+        if (key == null) {
+            return null;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0x0f, 16));
+                sb.append(Character.forDigit(b & 0x0f, 16));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            if (DEBUG)
+                e.printStackTrace();
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.infthink.libs.cache.disk;
+
+import com.infthink.libs.cache.ICacheId;
+import com.infthink.libs.cache.ICacheable;
+
+/**
+ * 可以保存到磁盘缓存的缓存标识。
+ * 缓存对象以编码后的数据保存在 {@linkplain DiskCache} 中，进程重启后可以从磁盘恢复，不需要重新下载。
+ */
+public interface IDiskCacheId<T extends ICacheable> extends ICacheId<T> {
+
+    /**
+     * @return 磁盘缓存中的键，进程重启后应该保持不变。返回null表示不使用磁盘缓存
+     */
+    public String getDiskKey();
+
+    /**
+     * 非UI方法，获取缓存对象编码后的数据，通常是从网络下载
+     * @return 获取失败返回null
+     */
+    public byte[] fetchData();
+
+    /**
+     * 使用 {@linkplain #fetchData()} 返回的数据或者从磁盘缓存中读取的数据创建缓存对象
+     * @param data
+     * @return 数据无效返回null
+     */
+    public T createCache(byte[] data);
+
+    /**
+     * 将缓存对象编码为可以用 {@linkplain #createCache(byte[])} 恢复的数据，用于缓存对象在内存中被更新后写回磁盘
+     * @param cacheable
+     * @return 不能编码时返回null
+     */
+    public byte[] toData(T cacheable);
+
+}
@@ -3,41 +3,242 @@ package com.infthink.libs.cache.expires;
 import java.io.InputStream;
 
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.util.Log;
 
+import com.infthink.libs.cache.CacheIdInternTable;
+import com.infthink.libs.cache.disk.IDiskCacheId;
+import com.infthink.libs.common.utils.BitmapUtils;
+import com.infthink.libs.common.utils.HashUtils;
+import com.infthink.libs.common.utils.IOUtils;
 import com.infthink.libs.network.HttpDirectMemoryDownload;
 
-public class BitmapCacheId implements IExpiresCacheId<BitmapCacheable> {
+public class BitmapCacheId implements IExpiresCacheId<BitmapCacheable>, IDiskCacheId<BitmapCacheable> {
 
     private static final String TAG = BitmapCacheId.class.getSimpleName();
-    private final String CACHE_ID;
-    private int mMaxWidth = -1;
-    private int mMaxHeight = -1;
-    private String mUrl;
-    private int mResId;
-    private Resources mResources;
-    private String mPath;
+    private static final int SOURCE_PATH = 1;
+    private static final int SOURCE_URL = 2;
+    private static final int SOURCE_RESOURCE = 3;
+    private static final CacheIdInternTable<BitmapCacheId> INTERN_TABLE = new CacheIdInternTable<BitmapCacheId>(256);
 
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private final String mUrl;
+    private final int mResId;
+    private final Resources mResources;
+    private final String mPath;
+    /**
+     * 解码使用的格式，为null时JPEG使用RGB_565，其它格式使用ARGB_8888
+     */
+    private final Bitmap.Config mConfig;
+    /**
+     * 由来源和取整后的宽高计算的64位指纹，用于hashCode和equals的快速比较
+     */
+    private final long mFingerprint;
+    private String mSourceKey;
+
+    /**
+     * 宽高限制会被向上取整到 {@linkplain #bucketSize(int)}，相近尺寸的请求共用同一个缓存。
+     * 解码格式按图片格式自动选择，见 {@linkplain BitmapUtils#chooseConfig(android.graphics.BitmapFactory.Options)}
+     */
     public BitmapCacheId(int maxWidth, int maxHeight, String path) {
-        mPath = path;
-        mMaxWidth = maxWidth;
-        mMaxHeight = maxHeight;
-        CACHE_ID = mPath + "|" + mMaxWidth + "x" + mMaxHeight;
+        this(maxWidth, maxHeight, path, null);
+    }
+
+    /**
+     * @param config 解码使用的格式，为null时按图片格式自动选择，不同的格式是不同的缓存
+     */
+    public BitmapCacheId(int maxWidth, int maxHeight, String path, Bitmap.Config config) {
+        this(path, null, null, 0, bucketSize(maxWidth), bucketSize(maxHeight), config);
     }
 
+    /**
+     * 宽高限制会被向上取整到 {@linkplain #bucketSize(int)}，相近尺寸的请求共用同一个缓存。
+     * 解码格式按图片格式自动选择，见 {@linkplain BitmapUtils#chooseConfig(android.graphics.BitmapFactory.Options)}
+     */
     public BitmapCacheId(String url, int maxWidth, int maxHeight) {
-        mUrl = url;
-        mMaxWidth = maxWidth;
-        mMaxHeight = maxHeight;
-        CACHE_ID = mUrl + "|" + mMaxWidth + "x" + mMaxHeight;
+        this(url, maxWidth, maxHeight, null);
     }
 
+    /**
+     * @param config 解码使用的格式，为null时按图片格式自动选择，不同的格式是不同的缓存
+     */
+    public BitmapCacheId(String url, int maxWidth, int maxHeight, Bitmap.Config config) {
+        this(null, url, null, 0, bucketSize(maxWidth), bucketSize(maxHeight), config);
+    }
+
+    /**
+     * 宽高限制会被向上取整到 {@linkplain #bucketSize(int)}，相近尺寸的请求共用同一个缓存。
+     * 解码格式按图片格式自动选择，见 {@linkplain BitmapUtils#chooseConfig(android.graphics.BitmapFactory.Options)}
+     */
     public BitmapCacheId(Resources resources, int resId, int maxWidth, int maxHeight) {
+        this(resources, resId, maxWidth, maxHeight, null);
+    }
+
+    /**
+     * @param config 解码使用的格式，为null时按图片格式自动选择，不同的格式是不同的缓存
+     */
+    public BitmapCacheId(Resources resources, int resId, int maxWidth, int maxHeight, Bitmap.Config config) {
+        this(null, null, resources, resId, bucketSize(maxWidth), bucketSize(maxHeight), config);
+    }
+
+    private BitmapCacheId(String path, String url, Resources resources, int resId, int maxWidth, int maxHeight, Bitmap.Config config) {
+        mPath = path;
+        mUrl = url;
         mResources = resources;
         mResId = resId;
         mMaxWidth = maxWidth;
         mMaxHeight = maxHeight;
-        CACHE_ID = mResId + "|" + mMaxWidth + "x" + mMaxHeight;
+        mConfig = config;
+        mFingerprint = fingerprint(path, url, resId, maxWidth, maxHeight, config);
+    }
+
+    /**
+     * 与 {@linkplain #BitmapCacheId(int, int, String)} 相同，优先复用最近创建的参数相同的CacheId
+     */
+    public static BitmapCacheId obtain(int maxWidth, int maxHeight, String path) {
+        return obtain(maxWidth, maxHeight, path, null);
+    }
+
+    /**
+     * @param config 解码使用的格式，为null时按图片格式自动选择，不同的格式是不同的缓存
+     */
+    public static BitmapCacheId obtain(int maxWidth, int maxHeight, String path, Bitmap.Config config) {
+        return obtain(path, null, null, 0, bucketSize(maxWidth), bucketSize(maxHeight), config);
+    }
+
+    /**
+     * 与 {@linkplain #BitmapCacheId(String, int, int)} 相同，优先复用最近创建的参数相同的CacheId
+     */
+    public static BitmapCacheId obtain(String url, int maxWidth, int maxHeight) {
+        return obtain(url, maxWidth, maxHeight, null);
+    }
+
+    /**
+     * @param config 解码使用的格式，为null时按图片格式自动选择，不同的格式是不同的缓存
+     */
+    public static BitmapCacheId obtain(String url, int maxWidth, int maxHeight, Bitmap.Config config) {
+        return obtain(null, url, null, 0, bucketSize(maxWidth), bucketSize(maxHeight), config);
+    }
+
+    /**
+     * 与 {@linkplain #BitmapCacheId(Resources, int, int, int)} 相同，优先复用最近创建的参数相同的CacheId
+     */
+    public static BitmapCacheId obtain(Resources resources, int resId, int maxWidth, int maxHeight) {
+        return obtain(resources, resId, maxWidth, maxHeight, null);
+    }
+
+    /**
+     * @param config 解码使用的格式，为null时按图片格式自动选择，不同的格式是不同的缓存
+     */
+    public static BitmapCacheId obtain(Resources resources, int resId, int maxWidth, int maxHeight, Bitmap.Config config) {
+        return obtain(null, null, resources, resId, bucketSize(maxWidth), bucketSize(maxHeight), config);
+    }
+
+    private static BitmapCacheId obtain(String path, String url, Resources resources, int resId, int maxWidth, int maxHeight, Bitmap.Config config) {
+        long fingerprint = fingerprint(path, url, resId, maxWidth, maxHeight, config);
+        BitmapCacheId cacheId = INTERN_TABLE.get(fingerprint);
+        if (cacheId != null && cacheId.mFingerprint == fingerprint && cacheId.mResources == resources
+                && cacheId.equalsFields(path, url, resId, maxWidth, maxHeight, config)) {
+            return cacheId;
+        }
+        cacheId = new BitmapCacheId(path, url, resources, resId, maxWidth, maxHeight, config);
+        INTERN_TABLE.put(fingerprint, cacheId);
+        return cacheId;
+    }
+
+    private static long fingerprint(String path, String url, int resId, int maxWidth, int maxHeight, Bitmap.Config config) {
+        long hash = HashUtils.FNV64_OFFSET_BASIS;
+        if (path != null) {
+            hash = HashUtils.fnv64(HashUtils.fnv64(hash, SOURCE_PATH), path);
+        } else if (url != null) {
+            hash = HashUtils.fnv64(HashUtils.fnv64(hash, SOURCE_URL), url);
+        } else {
+            hash = HashUtils.fnv64(HashUtils.fnv64(hash, SOURCE_RESOURCE), resId);
+        }
+        hash = HashUtils.fnv64(hash, maxWidth);
+        hash = HashUtils.fnv64(hash, maxHeight);
+        return HashUtils.fnv64(hash, config == null ? -1 : config.ordinal());
+    }
+
+    private boolean equalsFields(String path, String url, int resId, int maxWidth, int maxHeight, Bitmap.Config config) {
+        return mMaxWidth == maxWidth && mMaxHeight == maxHeight && mResId == resId && mConfig == config && (mPath == null ? path == null : mPath.equals(path))
+                && (mUrl == null ? url == null : mUrl.equals(url));
+    }
+
+    /**
+     * <pre>
+     * 将宽高限制向上取整到尺寸档位：64, 96, 128, 192, 256, 384, 512, 768, 1024...
+     * 每档是上一档的1.5倍或者4/3倍，decode出的图片最多比请求的大50%。
+     * </pre>
+     * @param size 宽或者高的限制，-1表示不限制
+     * @return 档位的值，不限制时返回-1；超过最高一档 3 << 29 时返回Integer.MAX_VALUE
+     */
+    public static int bucketSize(int size) {
+        if (size < 0) {
+            return -1;
+        }
+        if (size <= 64) {
+            return 64;
+        }
+        int power = Integer.highestOneBit(size - 1);
+        int middle = power + (power >> 1);
+        if (size <= middle) {
+            return middle;
+        }
+        // power为1 << 30时下一档会溢出为负数
+        return power == Integer.highestOneBit(Integer.MAX_VALUE) ? Integer.MAX_VALUE : power << 1;
+    }
+
+    /**
+     * @return 图片来源的标识，同一来源不同尺寸的CacheId返回相同的值
+     */
+    public String getSourceKey() {
+        String sourceKey = mSourceKey;
+        if (sourceKey == null) {
+            if (mPath != null) {
+                sourceKey = "path:" + mPath;
+            } else if (mUrl != null) {
+                sourceKey = "url:" + mUrl;
+            } else {
+                sourceKey = "res:" + mResId;
+            }
+            mSourceKey = sourceKey;
+        }
+        return sourceKey;
+    }
+
+    /**
+     * @return 取整后的最大宽度，-1表示不限制
+     */
+    public int getMaxWidth() {
+        return mMaxWidth;
+    }
+
+    /**
+     * @return 取整后的最大高度，-1表示不限制
+     */
+    public int getMaxHeight() {
+        return mMaxHeight;
+    }
+
+    /**
+     * @return 解码使用的格式，null表示按图片格式自动选择
+     */
+    public Bitmap.Config getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * @param other 同一来源的CacheId
+     * @return other的解码格式与此CacheId相同，宽高限制都不小于此CacheId的限制
+     */
+    public boolean isCoveredBy(BitmapCacheId other) {
+        return mConfig == other.mConfig && covers(other.mMaxWidth, mMaxWidth) && covers(other.mMaxHeight, mMaxHeight);
+    }
+
+    private static boolean covers(int larger, int smaller) {
+        return larger == -1 || (smaller != -1 && larger >= smaller);
     }
 
     @Override
@@ -53,14 +254,14 @@ public class BitmapCacheId implements IExpiresCacheId<BitmapCacheable> {
         }
         BitmapCacheable instance = null;
         if (mPath != null) {
-            instance = new BitmapCacheable(mPath, mMaxWidth, mMaxHeight);
+            instance = new BitmapCacheable(mPath, mMaxWidth, mMaxHeight, mConfig);
         } else if (mUrl != null) {
-            InputStream is = HttpDirectMemoryDownload.download(mUrl, null);
-            if (is != null) {
-                instance = new BitmapCacheable(is, mMaxWidth, mMaxHeight);
+            byte[] data = fetchData();
+            if (data != null) {
+                instance = new BitmapCacheable(data, mMaxWidth, mMaxHeight, mConfig);
             }
         } else {
-            instance = new BitmapCacheable(mResources, mResId, mMaxWidth, mMaxHeight);
+            instance = new BitmapCacheable(mResources, mResId, mMaxWidth, mMaxHeight, mConfig);
         }
         if (instance != null && instance.getBitmap() != null) {
             return instance;
@@ -68,14 +269,45 @@ public class BitmapCacheId implements IExpiresCacheId<BitmapCacheable> {
         return null;
     }
 
+    /**
+     * 只有网络图片使用磁盘缓存，磁盘中保存的是原始的图片数据，不同尺寸的CacheId共用同一条记录
+     */
+    @Override
+    public String getDiskKey() {
+        return mUrl;
+    }
+
+    @Override
+    public byte[] fetchData() {
+        if (mUrl == null) {
+            return null;
+        }
+        InputStream is = HttpDirectMemoryDownload.download(mUrl, null);
+        return is == null ? null : IOUtils.readBytes(is);
+    }
+
+    /**
+     * 解码后的Bitmap不能还原为原始数据
+     */
+    @Override
+    public byte[] toData(BitmapCacheable cacheable) {
+        return null;
+    }
+
+    @Override
+    public BitmapCacheable createCache(byte[] data) {
+        BitmapCacheable instance = new BitmapCacheable(data, mMaxWidth, mMaxHeight, mConfig);
+        return instance.getBitmap() != null ? instance : null;
+    }
+
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((CACHE_ID == null) ? 0 : CACHE_ID.hashCode());
-        return result;
+        return HashUtils.fold(mFingerprint);
     }
 
+    /**
+     * 先比较指纹，指纹相同时再比较参数，排除哈希冲突
+     */
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
@@ -85,12 +317,9 @@ public class BitmapCacheId implements IExpiresCacheId<BitmapCacheable> {
         if (getClass() != obj.getClass())
             return false;
         BitmapCacheId other = (BitmapCacheId) obj;
-        if (CACHE_ID == null) {
-            if (other.CACHE_ID != null)
-                return false;
-        } else if (!CACHE_ID.equals(other.CACHE_ID))
+        if (mFingerprint != other.mFingerprint)
             return false;
-        return true;
+        return equalsFields(other.mPath, other.mUrl, other.mResId, other.mMaxWidth, other.mMaxHeight, other.mConfig);
     }
 
 }
@@ -5,12 +5,13 @@ import java.io.InputStream;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 
+import com.infthink.libs.common.utils.BitmapReusePool;
 import com.infthink.libs.common.utils.BitmapUtils;
 
 /**
  * Bitmap缓存对象
  */
-public class BitmapCacheable implements IExpiresCacheable {
+public class BitmapCacheable implements IDateExpiresCacheable {
 
     private Bitmap mBitmap;
 
@@ -20,7 +21,30 @@ public class BitmapCacheable implements IExpiresCacheable {
      * @param maxHeight decode图片的最大高度，-1表示不限制
      */
     public BitmapCacheable(InputStream is, int maxWidth, int maxHeight) {
-        mBitmap = BitmapUtils.decodeBitmap(is, maxWidth, maxHeight);
+        this(is, maxWidth, maxHeight, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @param config 解码使用的格式，为null时由 {@linkplain BitmapUtils#chooseConfig(android.graphics.BitmapFactory.Options)} 按图片格式选择
+     */
+    public BitmapCacheable(InputStream is, int maxWidth, int maxHeight, Bitmap.Config config) {
+        mBitmap = BitmapUtils.decodeBitmap(is, maxWidth, maxHeight, config);
+    }
+
+    /**
+     * @param data 图片编码后的数据
+     * @param maxWidth decode图片的最大宽度，-1表示不限制
+     * @param maxHeight decode图片的最大高度，-1表示不限制
+     */
+    public BitmapCacheable(byte[] data, int maxWidth, int maxHeight) {
+        this(data, maxWidth, maxHeight, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @param config 解码使用的格式，为null时由 {@linkplain BitmapUtils#chooseConfig(android.graphics.BitmapFactory.Options)} 按图片格式选择
+     */
+    public BitmapCacheable(byte[] data, int maxWidth, int maxHeight, Bitmap.Config config) {
+        mBitmap = BitmapUtils.decodeBitmap(data, maxWidth, maxHeight, config);
     }
 
     /**
@@ -29,7 +53,14 @@ public class BitmapCacheable implements IExpiresCacheable {
      * @param maxHeight decode图片的最大高度，-1表示不限制
      */
     public BitmapCacheable(String path, int maxWidth, int maxHeight) {
-        mBitmap = BitmapUtils.decodeBitmap(path, maxWidth, maxHeight);
+        this(path, maxWidth, maxHeight, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @param config 解码使用的格式，为null时由 {@linkplain BitmapUtils#chooseConfig(android.graphics.BitmapFactory.Options)} 按图片格式选择
+     */
+    public BitmapCacheable(String path, int maxWidth, int maxHeight, Bitmap.Config config) {
+        mBitmap = BitmapUtils.decodeBitmap(path, maxWidth, maxHeight, config);
     }
 
     /**
@@ -38,7 +69,21 @@ public class BitmapCacheable implements IExpiresCacheable {
      * @param maxHeight decode图片的最大高度，-1表示不限制
      */
     public BitmapCacheable(Resources resources, int resId, int maxWidth, int maxHeight) {
-        mBitmap = BitmapUtils.decodeBitmap(resources, resId, maxWidth, maxHeight);
+        this(resources, resId, maxWidth, maxHeight, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @param config 解码使用的格式，为null时由 {@linkplain BitmapUtils#chooseConfig(android.graphics.BitmapFactory.Options)} 按图片格式选择
+     */
+    public BitmapCacheable(Resources resources, int resId, int maxWidth, int maxHeight, Bitmap.Config config) {
+        mBitmap = BitmapUtils.decodeBitmap(resources, resId, maxWidth, maxHeight, config);
+    }
+
+    /**
+     * @param bitmap 已经decode的图片，不能与其它缓存对象共用
+     */
+    public BitmapCacheable(Bitmap bitmap) {
+        mBitmap = bitmap;
     }
 
     public Bitmap getBitmap() {
@@ -47,7 +92,12 @@ public class BitmapCacheable implements IExpiresCacheable {
 
     @Override
     public int getCacheSize() {
-        return mBitmap == null ? 0 : mBitmap.getByteCount();
+        return mBitmap == null ? 0 : BitmapReusePool.sizeOf(mBitmap);
+    }
+
+    @Override
+    public long getDateExpires() {
+        return Long.MAX_VALUE;
     }
 
     @Override
@@ -1,23 +1,127 @@
 package com.infthink.libs.cache.expires;
 
-import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import android.util.Log;
 
+import com.infthink.libs.cache.CacheExecutors;
+import com.infthink.libs.cache.CacheStats;
 import com.infthink.libs.cache.ICacheId;
 import com.infthink.libs.cache.LruCachePool;
+import com.infthink.libs.cache.RemovalCause;
+import com.infthink.libs.cache.disk.DiskCache;
+import com.infthink.libs.cache.disk.IDiskCacheId;
+import com.infthink.libs.cache.policy.IEvictionPolicyFactory;
 
 public class ExpiresCachePool<K extends IExpiresCacheId<V>, V extends IExpiresCacheable> extends LruCachePool<K, V> {
 
     private static final String TAG = ExpiresCachePool.class.getSimpleName();
-    private final Map<ICacheId<V>, Reference<V>> mCache;
+    /**
+     * 软引用缓存的默认记录数上限
+     */
+    public static final int DEFAULT_SOFT_MAX_COUNT = 1024;
+    private final SoftCache<K, V> mCache;
+    private volatile DiskCache mDiskCache;
+    private volatile long mMaxStale;
+    /**
+     * 正在后台刷新的缓存，同一个CacheId同一时刻只有一个刷新任务
+     */
+    private final ConcurrentMap<K, Boolean> mRefreshings;
+    /**
+     * 读取时发现已经过期、等待 {@linkplain #load(IExpiresCacheId)} 重新验证的旧缓存对象
+     */
+    private final ConcurrentMap<K, V> mStales;
+    private volatile TimerWheel<K, V> mTimerWheel;
+    private volatile long mRefreshAhead;
+    private final Object mTickLock = new Object();
+    private TickTask mTickTask;
 
     public ExpiresCachePool(int maxSize) {
         super(maxSize);
-        mCache = new ConcurrentHashMap<ICacheId<V>, Reference<V>>();
+        mCache = new SoftCache<K, V>(DEFAULT_SOFT_MAX_COUNT);
+        mRefreshings = new ConcurrentHashMap<K, Boolean>();
+        mStales = new ConcurrentHashMap<K, V>();
+    }
+
+    /**
+     * @param maxSize
+     * @param policyFactory 强引用缓存的淘汰策略，为null时使用LRU
+     * @see LruCachePool#LruCachePool(int, int, IEvictionPolicyFactory)
+     */
+    public ExpiresCachePool(int maxSize, IEvictionPolicyFactory policyFactory) {
+        super(maxSize, DEFAULT_CONCURRENCY_LEVEL, policyFactory);
+        mCache = new SoftCache<K, V>(DEFAULT_SOFT_MAX_COUNT);
+        mRefreshings = new ConcurrentHashMap<K, Boolean>();
+        mStales = new ConcurrentHashMap<K, V>();
+    }
+
+    /**
+     * <pre>
+     * 设置stale-while-revalidate模式。
+     * 缓存过期不超过maxStale时，{@linkplain #getCache(IExpiresCacheId)} 直接返回过期的缓存，同时在后台刷新一次，
+     * 刷新完成前其它的读取仍然得到过期的缓存。过期超过maxStale时与未开启时相同，在调用线程上重新加载。
+     * </pre>
+     * @param maxStale 允许返回的过期缓存的最大过期时长，单位毫秒，小于等于0表示关闭
+     */
+    public void setStaleWhileRevalidate(long maxStale) {
+        mMaxStale = maxStale;
+    }
+
+    public long getStaleWhileRevalidate() {
+        return mMaxStale;
+    }
+
+    /**
+     * @return 软引用缓存，可以查看记录数和命中数，或者修改记录数上限
+     */
+    public SoftCache<K, V> getSoftCache() {
+        return mCache;
+    }
+
+    /**
+     * <pre>
+     * 开启主动过期。强引用中的每个缓存按过期时间（开启stale-while-revalidate时再加上maxStale）放入 {@linkplain TimerWheel}，
+     * 到期后立即从缓存中删除，不需要等到下一次读取时才发现过期，过期的缓存不会继续占用容量。
+     * refreshAhead大于0时，在过期前refreshAhead毫秒检查缓存在这期间是否被读取过，读取过的在后台提前刷新，
+     * 经常读取的缓存不会在读取时遇到过期。只在时间轮中最早的到期时间唤醒一次，不按tick轮询，时间轮为空时不唤醒。
+     * </pre>
+     * @param tickMillis 检查的间隔，单位毫秒，小于等于0表示关闭
+     * @param refreshAhead 提前刷新的时间，单位毫秒，小于等于0表示不提前刷新
+     */
+    public void setExpiryTimer(long tickMillis, long refreshAhead) {
+        TimerWheel<K, V> old = mTimerWheel;
+        if (old != null) {
+            old.clear();
+        }
+        mRefreshAhead = refreshAhead;
+        if (tickMillis <= 0) {
+            mTimerWheel = null;
+            return;
+        }
+        mTimerWheel = new TimerWheel<K, V>(tickMillis, System.currentTimeMillis());
+        for (Map.Entry<K, V> entry : snapshot().entrySet()) {
+            scheduleExpiry(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 设置磁盘缓存，位于软引用和 {@linkplain ICacheId#createCache()} 之间。
+     * 只有实现了 {@linkplain IDiskCacheId} 的CacheId才会使用磁盘缓存。
+     * @param diskCache 为null表示不使用磁盘缓存
+     */
+    public void setDiskCache(DiskCache diskCache) {
+        mDiskCache = diskCache;
+    }
+
+    public DiskCache getDiskCache() {
+        return mDiskCache;
     }
 
     @Override
@@ -27,35 +131,395 @@ public class ExpiresCachePool<K extends IExpiresCacheId<V>, V extends IExpiresCa
     }
 
     @Override
-    public void removeCache(K cacheId) {
+    protected void removeCache(K cacheId, RemovalCause cause) {
         mCache.remove(cacheId);
-        super.removeCache(cacheId);
+        super.removeCache(cacheId, cause);
     }
 
     @Override
     public void putCache(K cacheId, V cacheable) {
         // 此方法会覆盖旧的缓存记录
-        mCache.put(cacheId, new SoftReference<V>(cacheable));
+        mCache.put(cacheId, cacheable);
+        scheduleExpiry(cacheId, cacheable);
         super.putCache(cacheId, cacheable);
     }
 
     @Override
-    protected V create(K cacheId) {
-        Reference<V> referenceCache = mCache.get(cacheId);
-        if (referenceCache != null) {
-            V cache = referenceCache.get();
+    protected void entryRemoved(RemovalCause cause, K key, V oldValue, V newValue) {
+        super.entryRemoved(cause, key, oldValue, newValue);
+        TimerWheel<K, V> wheel = mTimerWheel;
+        if (wheel != null) {
+            wheel.cancel(key, oldValue);
+        }
+    }
+
+    /**
+     * 从软引用中删除记录，只有软引用指向的仍然是cacheable时才删除
+     * @param cacheId
+     * @param cacheable
+     */
+    protected void removeSoftReference(K cacheId, V cacheable) {
+        mCache.remove(cacheId, cacheable);
+    }
+
+    /**
+     * 先从软引用中查找，再尝试 {@linkplain #deriveCache(IExpiresCacheId)}，最后读取磁盘或者创建。同一个CacheId的并发加载会被合并为一次。
+     * 读取时发现过期的缓存先重新验证，失败后直接下载，磁盘中是同一份过期的数据，不再读取。
+     */
+    @Override
+    protected V load(K cacheId) {
+        V stale = mStales.remove(cacheId);
+        V cacheable;
+        if (stale != null) {
+            cacheable = fetchRevalidated(cacheId, stale);
+            if (cacheable == null) {
+                cacheable = loadFromDisk(cacheId, false);
+            }
+        } else {
+            V cache = mCache.get(cacheId);
             if (cache != null) {
+                getStats().recordHit(CacheStats.Tier.SOFT);
                 return cache;
             }
+            cacheable = deriveCache(cacheId);
+            if (cacheable != null) {
+                getStats().recordHit(CacheStats.Tier.DERIVED);
+            } else {
+                cacheable = loadFromDisk(cacheId);
+            }
         }
-        V cacheable = super.create(cacheId);
         if (cacheable != null) {
             // 此方法会覆盖旧的缓存记录
-            mCache.put(cacheId, new SoftReference<V>(cacheable));
+            mCache.put(cacheId, cacheable);
+            scheduleExpiry(cacheId, cacheable);
+        }
+        return cacheable;
+    }
+
+    /**
+     * 软引用未命中后、读取磁盘之前调用，子类可以由内存中已有的其它缓存生成缓存对象，例如缩小同一张图片的大尺寸版本
+     * @param cacheId
+     * @return 不能生成时返回null
+     */
+    protected V deriveCache(K cacheId) {
+        return null;
+    }
+
+    /**
+     * 没有设置磁盘缓存时，是否也先通过 {@linkplain IDiskCacheId#fetchData()} 取得原始数据，
+     * 再由 {@linkplain #createCache(IExpiresCacheId, byte[])} 生成缓存对象。默认为false，直接调用 {@linkplain ICacheId#createCache()}
+     * @param cacheId 实现了 {@linkplain IDiskCacheId} 的CacheId
+     * @return
+     */
+    protected boolean needsData(K cacheId) {
+        return false;
+    }
+
+    /**
+     * 由磁盘缓存中或者新下载的原始数据生成缓存对象，子类可以在这里按数据内容共用缓存对象
+     * @param cacheId 实现了 {@linkplain IDiskCacheId} 的CacheId
+     * @param data
+     * @return 数据无效时返回null
+     */
+    @SuppressWarnings("unchecked")
+    protected V createCache(K cacheId, byte[] data) {
+        return ((IDiskCacheId<V>) cacheId).createCache(data);
+    }
+
+    private V loadFromDisk(K cacheId) {
+        return loadFromDisk(cacheId, true);
+    }
+
+    /**
+     * @param readDisk 为false时不读取磁盘缓存，直接下载，下载的结果仍然写入磁盘缓存
+     */
+    @SuppressWarnings("unchecked")
+    private V loadFromDisk(K cacheId, boolean readDisk) {
+        DiskCache diskCache = mDiskCache;
+        if (!(cacheId instanceof IDiskCacheId) || (diskCache == null && !needsData(cacheId))) {
+            return super.load(cacheId);
+        }
+        IDiskCacheId<V> diskCacheId = (IDiskCacheId<V>) cacheId;
+        String diskKey = diskCacheId.getDiskKey();
+        if (diskKey == null) {
+            return super.load(cacheId);
+        }
+        byte[] data = diskCache == null || !readDisk ? null : diskCache.get(diskKey);
+        if (data != null) {
+            long start = System.nanoTime();
+            V cacheable = createCache(cacheId, data);
+            if (cacheable != null && !cacheable.isExpires()) {
+                getStats().recordHit(CacheStats.Tier.DISK);
+                recordLoadCost(System.nanoTime() - start);
+                return cacheable;
+            }
+            if (cacheable != null && cacheId instanceof IRevalidatableCacheId) {
+                start = System.nanoTime();
+                V revalidated = ((IRevalidatableCacheId<V>) cacheId).revalidate(cacheable);
+                long cost = System.nanoTime() - start;
+                getStats().recordLoad(revalidated != null, cost);
+                if (revalidated != null) {
+                    recordLoadCost(cost);
+                    writeToDisk(cacheId, revalidated);
+                    return revalidated;
+                }
+            }
+            if (DEBUG)
+                Log.d(TAG, String.format("磁盘缓存数据无效或已过期 %s", diskKey));
+            diskCache.remove(diskKey);
+        }
+        long start = System.nanoTime();
+        data = diskCacheId.fetchData();
+        V cacheable = data == null ? null : createCache(cacheId, data);
+        long cost = System.nanoTime() - start;
+        getStats().recordLoad(cacheable != null, cost);
+        recordLoadCost(cost);
+        if (cacheable != null && diskCache != null) {
+            diskCache.put(diskKey, data);
         }
         return cacheable;
     }
 
+    /**
+     * 过期的缓存只有在stale-while-revalidate允许的范围内才能直接返回，同时触发后台刷新
+     */
+    @Override
+    protected V peekCache(K cacheId) {
+        V cacheable = super.peekCache(cacheId);
+        if (cacheable == null) {
+            return null;
+        }
+        TimerWheel<K, V> wheel = mTimerWheel;
+        if (wheel != null) {
+            wheel.touch(cacheId);
+        }
+        if (!cacheable.isExpires()) {
+            return cacheable;
+        }
+        long maxStale = mMaxStale;
+        if (maxStale > 0 && System.currentTimeMillis() - dateExpires(cacheable) <= maxStale) {
+            refreshInBackground(cacheId, cacheable);
+            return cacheable;
+        }
+        return null;
+    }
+
+    /**
+     * 重新验证过期的缓存对象，成功后替换内存和磁盘中的记录
+     * @param cacheId
+     * @param stale
+     * @return CacheId不支持重新验证或者验证失败时返回null
+     */
+    private V revalidate(K cacheId, V stale) {
+        V cacheable = fetchRevalidated(cacheId, stale);
+        if (cacheable != null) {
+            putCache(cacheId, cacheable);
+        }
+        return cacheable;
+    }
+
+    /**
+     * 重新验证过期的缓存对象，成功后替换磁盘中的记录，不放入内存
+     * @return CacheId不支持重新验证或者验证失败时返回null
+     */
+    @SuppressWarnings("unchecked")
+    private V fetchRevalidated(K cacheId, V stale) {
+        if (!(cacheId instanceof IRevalidatableCacheId)) {
+            return null;
+        }
+        long start = System.nanoTime();
+        V cacheable = ((IRevalidatableCacheId<V>) cacheId).revalidate(stale);
+        getStats().recordLoad(cacheable != null, System.nanoTime() - start);
+        if (cacheable == null) {
+            if (DEBUG)
+                Log.d(TAG, String.format("重新验证失败 %s", cacheId.getClass().getName()));
+            return null;
+        }
+        writeToDisk(cacheId, cacheable);
+        return cacheable;
+    }
+
+    /**
+     * 在后台刷新过期的缓存，刷新期间旧的记录保留在缓存中
+     * @param cacheId
+     * @param stale
+     */
+    private void refreshInBackground(final K cacheId, final V stale) {
+        if (mRefreshings.putIfAbsent(cacheId, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            CacheExecutors.background().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (revalidate(cacheId, stale) != null) {
+                            return;
+                        }
+                        // 磁盘中是同一份过期的数据，已经验证失败，不再读取磁盘和重新验证
+                        V cacheable = loadFromDisk(cacheId, false);
+                        if (cacheable != null) {
+                            putCache(cacheId, cacheable);
+                        } else if (DEBUG) {
+                            Log.d(TAG, String.format("后台刷新失败，继续使用过期的缓存 %s", cacheId.getClass().getName()));
+                        }
+                    } finally {
+                        mRefreshings.remove(cacheId);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            mRefreshings.remove(cacheId);
+            if (DEBUG)
+                e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param cacheable
+     * @return 过期的时间点。没有实现 {@linkplain IDateExpiresCacheable} 的缓存对象不知道过期时间，
+     *         已经过期时按过期了很久计算，不会作为stale-while-revalidate的过期缓存返回；未过期时按永不过期计算，不放入时间轮
+     */
+    private static long dateExpires(IExpiresCacheable cacheable) {
+        if (cacheable instanceof IDateExpiresCacheable) {
+            return ((IDateExpiresCacheable) cacheable).getDateExpires();
+        }
+        return cacheable.isExpires() ? 0 : Long.MAX_VALUE;
+    }
+
+    /**
+     * @param dateExpires
+     * @return 缓存从内存中删除的时间，开启stale-while-revalidate时可以继续使用到过期后maxStale
+     */
+    private long expiryDeadline(long dateExpires) {
+        long maxStale = mMaxStale;
+        if (maxStale <= 0) {
+            return dateExpires;
+        }
+        return dateExpires > Long.MAX_VALUE - maxStale ? Long.MAX_VALUE : dateExpires + maxStale;
+    }
+
+    /**
+     * 把缓存放入时间轮，开启提前刷新时先在刷新的时间点到期，否则在删除的时间点到期
+     */
+    private void scheduleExpiry(K cacheId, V cacheable) {
+        TimerWheel<K, V> wheel = mTimerWheel;
+        long dateExpires = dateExpires(cacheable);
+        if (wheel == null || dateExpires == Long.MAX_VALUE) {
+            return;
+        }
+        long deadline = expiryDeadline(dateExpires);
+        long refreshAhead = mRefreshAhead;
+        long time = refreshAhead > 0 ? Math.min(deadline, dateExpires - refreshAhead) : deadline;
+        wheel.schedule(cacheId, cacheable, time);
+        scheduleTick(wheel, time);
+    }
+
+    /**
+     * 在time唤醒并推进时间轮，已经安排了更早的唤醒时不需要重新安排
+     * @param wheel
+     * @param time 为Long.MAX_VALUE表示不需要唤醒
+     */
+    private void scheduleTick(TimerWheel<K, V> wheel, long time) {
+        if (time == Long.MAX_VALUE) {
+            return;
+        }
+        synchronized (mTickLock) {
+            TickTask pending = mTickTask;
+            if (pending != null) {
+                if (pending.mWheel == wheel && pending.mTime <= time) {
+                    return;
+                }
+                pending.mFuture.cancel(false);
+                mTickTask = null;
+            }
+            TickTask task = new TickTask(wheel, time);
+            try {
+                long delay = Math.max(0, time - System.currentTimeMillis());
+                task.mFuture = CacheExecutors.scheduler().schedule(task, delay, TimeUnit.MILLISECONDS);
+                mTickTask = task;
+            } catch (RejectedExecutionException e) {
+                if (DEBUG)
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    private class TickTask implements Runnable {
+
+        private final TimerWheel<K, V> mWheel;
+        private final long mTime;
+        private ScheduledFuture<?> mFuture;
+
+        TickTask(TimerWheel<K, V> wheel, long time) {
+            mWheel = wheel;
+            mTime = time;
+        }
+
+        @Override
+        public void run() {
+            synchronized (mTickLock) {
+                // 已经被更早的唤醒替换
+                if (mTickTask != this) {
+                    return;
+                }
+                mTickTask = null;
+            }
+            onTick(mWheel);
+        }
+
+    }
+
+    /**
+     * 处理到期的定时器：未到删除时间的是提前刷新的时间点，被读取过的在后台刷新，然后等待删除时间；到了删除时间的从缓存中删除
+     */
+    private void onTick(TimerWheel<K, V> wheel) {
+        if (wheel != mTimerWheel) {
+            return;
+        }
+        List<TimerWheel.Timer<K, V>> timers = new ArrayList<TimerWheel.Timer<K, V>>();
+        long now = System.currentTimeMillis();
+        wheel.advance(now, timers);
+        int expiredCount = 0;
+        for (TimerWheel.Timer<K, V> timer : timers) {
+            K cacheId = timer.getKey();
+            V cacheable = timer.getValue();
+            long deadline = expiryDeadline(dateExpires(cacheable));
+            if (now < deadline) {
+                // 先放入删除时间的定时器，刷新完成后putCache会替换它
+                wheel.schedule(cacheId, cacheable, deadline);
+                if (timer.isAccessed()) {
+                    refreshInBackground(cacheId, cacheable);
+                }
+            } else {
+                removeSoftReference(cacheId, cacheable);
+                if (remove(cacheId, cacheable, RemovalCause.EXPIRED)) {
+                    expiredCount++;
+                }
+            }
+        }
+        if (DEBUG && !timers.isEmpty())
+            Log.d(TAG, String.format("时间轮到期 %s, 删除 %s, 剩余 %s", timers.size(), expiredCount, wheel.size()));
+        scheduleTick(wheel, wheel.nextDeadline());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeToDisk(K cacheId, V cacheable) {
+        DiskCache diskCache = mDiskCache;
+        if (diskCache == null || !(cacheId instanceof IDiskCacheId)) {
+            return;
+        }
+        IDiskCacheId<V> diskCacheId = (IDiskCacheId<V>) cacheId;
+        String diskKey = diskCacheId.getDiskKey();
+        if (diskKey == null) {
+            return;
+        }
+        byte[] data = diskCacheId.toData(cacheable);
+        if (data != null) {
+            diskCache.put(diskKey, data);
+        }
+    }
+
     @Override
     public V getCache(K cacheId) {
         // TODO Auto-generated method stub
@@ -63,9 +527,28 @@ public class ExpiresCachePool<K extends IExpiresCacheId<V>, V extends IExpiresCa
         if (cacheable == null) {
             return null;
         }
+        TimerWheel<K, V> wheel = mTimerWheel;
+        if (wheel != null) {
+            wheel.touch(cacheId);
+        }
         if (cacheable.isExpires()) {
-            removeCache(cacheId);
-            cacheable = super.getCache(cacheId);
+            long maxStale = mMaxStale;
+            if (maxStale > 0 && System.currentTimeMillis() - dateExpires(cacheable) <= maxStale) {
+                refreshInBackground(cacheId, cacheable);
+                return cacheable;
+            }
+            // 只删除这个过期的对象，其它线程可能已经放入了新的；交给合并的加载重新验证，并发读取同一个过期缓存时只验证一次
+            V stale = cacheable;
+            removeSoftReference(cacheId, stale);
+            if (remove(cacheId, stale, RemovalCause.EXPIRED)) {
+                mStales.put(cacheId, stale);
+            }
+            // 同一次请求已经计入统计，直接加载，不再通过getCache重复记录请求
+            try {
+                cacheable = create(cacheId);
+            } finally {
+                mStales.remove(cacheId, stale);
+            }
             if (cacheable != null && cacheable.isExpires()) {
                 if (DEBUG)
                     Log.d(TAG, String.format("新创建的数据也是已经过期的 %s", cacheId.getClass().getName()));
@@ -0,0 +1,17 @@
+package com.infthink.libs.cache.expires;
+
+/**
+ * <pre>
+ * 可以给出过期时间点的缓存实体。
+ * {@linkplain ExpiresCachePool} 的stale-while-revalidate和主动过期需要知道过期时间点，
+ * 只实现 {@linkplain IExpiresCacheable} 的缓存实体仍然可以使用，只是不参与这两个功能。
+ * </pre>
+ */
+public interface IDateExpiresCacheable extends IExpiresCacheable {
+
+    /**
+     * @return 过期的时间点，单位毫秒，与 {@linkplain System#currentTimeMillis()} 比较。永不过期时返回 {@linkplain Long#MAX_VALUE}
+     */
+    public long getDateExpires();
+
+}
@@ -0,0 +1,19 @@
+package com.infthink.libs.cache.expires;
+
+/**
+ * <pre>
+ * 过期后可以重新验证的缓存标识。
+ * 缓存过期时 {@linkplain ExpiresCachePool} 先调用 {@linkplain #revalidate(IExpiresCacheable)}，
+ * 例如发送带If-None-Match的条件请求，内容没有变化时只更新过期时间，不需要重新下载。
+ * </pre>
+ */
+public interface IRevalidatableCacheId<T extends IExpiresCacheable> extends IExpiresCacheId<T> {
+
+    /**
+     * 非UI方法
+     * @param stale 已经过期的缓存对象
+     * @return 验证后的缓存对象，内容没有变化时可以是更新了过期时间的副本。验证失败返回null
+     */
+    public T revalidate(T stale);
+
+}
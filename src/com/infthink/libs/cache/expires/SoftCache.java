@@ -0,0 +1,170 @@
+package com.infthink.libs.cache.expires;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 软引用缓存，强引用缓存淘汰的对象在被GC回收之前仍然可以从这里取回。
+ * 被回收的软引用通过ReferenceQueue在每次访问时清理，不会留下无效的记录；
+ * 记录数超过上限时删除最久未访问的记录，长时间运行时不会因为访问过的CacheId越来越多而增长。
+ * </pre>
+ */
+public class SoftCache<K, V> {
+
+    private final LinkedHashMap<K, SoftEntry<K, V>> mEntries;
+    private final ReferenceQueue<V> mQueue = new ReferenceQueue<V>();
+    private volatile int mMaxCount;
+    private long mHitCount;
+    private long mMissCount;
+    private long mCollectedCount;
+
+    private static final class SoftEntry<K, V> extends SoftReference<V> {
+
+        final K key;
+
+        SoftEntry(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+
+    }
+
+    /**
+     * @param maxCount 最多保存的记录数
+     */
+    public SoftCache(int maxCount) {
+        if (maxCount <= 0) {
+            throw new IllegalArgumentException("maxCount <= 0");
+        }
+        mMaxCount = maxCount;
+        mEntries = new LinkedHashMap<K, SoftEntry<K, V>>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, SoftEntry<K, V>> eldest) {
+                return size() > mMaxCount;
+            }
+
+        };
+    }
+
+    /**
+     * @param key
+     * @return 不存在或者已经被回收时返回null
+     */
+    public synchronized V get(K key) {
+        drainQueue();
+        SoftEntry<K, V> entry = mEntries.get(key);
+        V value = entry == null ? null : entry.get();
+        if (value != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return value;
+    }
+
+    /**
+     * 此方法会覆盖旧的记录
+     * @param key
+     * @param value
+     */
+    public synchronized void put(K key, V value) {
+        drainQueue();
+        mEntries.put(key, new SoftEntry<K, V>(key, value, mQueue));
+    }
+
+    public synchronized void remove(K key) {
+        drainQueue();
+        mEntries.remove(key);
+    }
+
+    /**
+     * 只有记录指向的仍然是value时才删除
+     * @param key
+     * @param value
+     */
+    public synchronized void remove(K key, V value) {
+        drainQueue();
+        // 按访问排序，用get检查会把记录移到最近访问的位置，先删除，不匹配时再放回
+        SoftEntry<K, V> entry = mEntries.remove(key);
+        if (entry != null && entry.get() != value) {
+            mEntries.put(key, entry);
+        }
+    }
+
+    public synchronized void clear() {
+        drainQueue();
+        mEntries.clear();
+    }
+
+    /**
+     * @return 当前的记录数，包括已经被回收、但还没有从ReferenceQueue中取出的记录
+     */
+    public synchronized int size() {
+        drainQueue();
+        return mEntries.size();
+    }
+
+    public int maxCount() {
+        return mMaxCount;
+    }
+
+    /**
+     * 修改记录数的上限，超出的记录立即删除
+     * @param maxCount
+     */
+    public synchronized void setMaxCount(int maxCount) {
+        if (maxCount <= 0) {
+            throw new IllegalArgumentException("maxCount <= 0");
+        }
+        mMaxCount = maxCount;
+        drainQueue();
+        Iterator<K> iterator = mEntries.keySet().iterator();
+        while (mEntries.size() > maxCount && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public synchronized long hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long missCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return 被GC回收后清理的记录数
+     */
+    public synchronized long collectedCount() {
+        return mCollectedCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drainQueue() {
+        SoftEntry<K, V> entry;
+        while ((entry = (SoftEntry<K, V>) mQueue.poll()) != null) {
+            // 同一个key可能已经放入了新的记录，只删除被回收的这一条。不能用get检查，否则会改变访问顺序
+            SoftEntry<K, V> current = mEntries.remove(entry.key);
+            if (current == entry) {
+                mCollectedCount++;
+            } else if (current != null) {
+                mEntries.put(entry.key, current);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("SoftCache[size=%d,maxCount=%d,hits=%d,misses=%d,collected=%d]", mEntries.size(), mMaxCount, mHitCount, mMissCount,
+                mCollectedCount);
+    }
+
+}
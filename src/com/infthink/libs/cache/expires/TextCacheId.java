@@ -4,22 +4,53 @@ import java.io.InputStream;
 
 import android.util.Log;
 
+import com.infthink.libs.cache.CacheIdInternTable;
+import com.infthink.libs.cache.disk.IDiskCacheId;
+import com.infthink.libs.common.utils.HashUtils;
+import com.infthink.libs.network.HttpCacheableDownload;
 import com.infthink.libs.network.HttpDirectMemoryDownload;
 
-public class TextCacheId implements IExpiresCacheId<TextCacheable> {
+public class TextCacheId implements IRevalidatableCacheId<TextCacheable>, IDiskCacheId<TextCacheable> {
 
     private static final String TAG = TextCacheId.class.getSimpleName();
-    private String mUrl;
-    private int mMode;
+    private static final CacheIdInternTable<TextCacheId> INTERN_TABLE = new CacheIdInternTable<TextCacheId>(64);
+    private final String mUrl;
+    private final int mMode;
+    /**
+     * 地址的64位指纹，用于hashCode和equals的快速比较
+     */
+    private final long mFingerprint;
 
     public TextCacheId(String httpUrl) {
-        mUrl = httpUrl;
-        mMode = 0;
+        this(httpUrl, 0);
     }
-    
+
     public TextCacheId(String httpUrl, int mode) {
         mUrl = httpUrl;
         mMode = mode;
+        mFingerprint = HashUtils.fnv64(HashUtils.FNV64_OFFSET_BASIS, httpUrl);
+    }
+
+    /**
+     * 与 {@linkplain #TextCacheId(String, int)} 相同，优先复用最近创建的参数相同的CacheId
+     */
+    public static TextCacheId obtain(String httpUrl, int mode) {
+        long fingerprint = HashUtils.fnv64(HashUtils.FNV64_OFFSET_BASIS, httpUrl);
+        TextCacheId cacheId = INTERN_TABLE.get(fingerprint);
+        if (cacheId != null && cacheId.mFingerprint == fingerprint && cacheId.mMode == mode && (httpUrl == null ? cacheId.mUrl == null : httpUrl.equals(cacheId.mUrl))) {
+            return cacheId;
+        }
+        cacheId = new TextCacheId(httpUrl, mode);
+        INTERN_TABLE.put(fingerprint, cacheId);
+        return cacheId;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public int getMode() {
+        return mMode;
     }
 
     @Override
@@ -28,11 +59,72 @@ public class TextCacheId implements IExpiresCacheId<TextCacheable> {
             Log.d(TAG, String.format("创建Text缓存 url:%s", mUrl));
         }
         TextCacheable instance = null;
-        InputStream is = HttpDirectMemoryDownload.download(mUrl, mMode, null);
-        if (is != null) {
-            instance = new TextCacheable(is);
+        if (mMode == 0) {
+            HttpCacheableDownload.Response response = HttpCacheableDownload.download(mUrl, null, null);
+            if (response != null && response.getData() != null) {
+                instance = new TextCacheable(response);
+            }
+        } else {
+            InputStream is = HttpDirectMemoryDownload.download(mUrl, mMode, null);
+            if (is != null) {
+                instance = new TextCacheable(is);
+            }
+        }
+        if (instance != null && instance.hasText()) {
+            return instance;
+        }
+        return null;
+    }
+
+    /**
+     * GET请求带上过期缓存的ETag和Last-Modified发送条件请求，服务器返回304时沿用原来的内容。
+     * POST请求重新下载。
+     */
+    @Override
+    public TextCacheable revalidate(TextCacheable stale) {
+        if (mMode != 0) {
+            return createCache();
         }
-        if (instance != null && instance.getText() != null) {
+        HttpCacheableDownload.Response response = HttpCacheableDownload.download(mUrl, stale.getETag(), stale.getLastModified());
+        if (response == null) {
+            return null;
+        }
+        if (response.isNotModified()) {
+            if (DEBUG) {
+                Log.d(TAG, String.format("Text缓存未修改 url:%s", mUrl));
+            }
+            return stale.revalidated(response);
+        }
+        if (response.getData() == null) {
+            return null;
+        }
+        TextCacheable instance = new TextCacheable(response);
+        return instance.hasText() ? instance : null;
+    }
+
+    /**
+     * 只有GET请求的结果使用磁盘缓存
+     */
+    @Override
+    public String getDiskKey() {
+        return mMode == 0 ? mUrl : null;
+    }
+
+    @Override
+    public byte[] fetchData() {
+        TextCacheable cacheable = createCache();
+        return cacheable == null ? null : cacheable.toData();
+    }
+
+    @Override
+    public byte[] toData(TextCacheable cacheable) {
+        return cacheable.toData();
+    }
+
+    @Override
+    public TextCacheable createCache(byte[] data) {
+        TextCacheable instance = TextCacheable.fromData(data);
+        if (instance != null && instance.hasText()) {
             return instance;
         }
         return null;
@@ -40,12 +132,12 @@ public class TextCacheId implements IExpiresCacheId<TextCacheable> {
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((mUrl == null) ? 0 : mUrl.hashCode());
-        return result;
+        return HashUtils.fold(mFingerprint);
     }
 
+    /**
+     * 先比较指纹，指纹相同时再比较地址，排除哈希冲突
+     */
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
@@ -55,6 +147,8 @@ public class TextCacheId implements IExpiresCacheId<TextCacheable> {
         if (getClass() != obj.getClass())
             return false;
         TextCacheId other = (TextCacheId) obj;
+        if (mFingerprint != other.mFingerprint)
+            return false;
         if (mUrl == null) {
             if (other.mUrl != null)
                 return false;
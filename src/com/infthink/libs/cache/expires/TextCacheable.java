@@ -1,33 +1,284 @@
 package com.infthink.libs.cache.expires;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import android.util.Log;
 
 import com.infthink.libs.common.utils.IOUtils;
+import com.infthink.libs.network.HttpCacheableDownload;
 
 /**
+ * <pre>
  * 文本缓存对象
+ * 文本以UTF-8编码的字节保存，超过 {@linkplain #setCompressThreshold(int)} 设置的长度时再用deflate压缩，
+ * {@linkplain #getText()} 第一次调用时才解码，解码后的String只被弱引用持有。
+ * 缓存大小在创建时计算一次。
+ * 可以附带文本解析后的对象（{@linkplain #putParsed(Class, Object)}），与文本一起被替换或删除，解析结果只被软引用持有，不计入缓存大小。
+ * </pre>
  */
-public class TextCacheable implements IExpiresCacheable {
+public class TextCacheable implements IDateExpiresCacheable {
 
     private static final String TAG = TextCacheable.class.getSimpleName();
     private static final long TIME_OUT = 5 * 60000;
+    private static final int DATA_VERSION = 3;
+    private static final String CHARSET = "UTF-8";
+    private static volatile int sCompressThreshold = -1;
+
     private long mDateExpires;
-    private String mText;
+    private byte[] mData;
+    private boolean mCompressed;
+    private int mLength;
+    private String mETag;
+    private String mLastModified;
+    private volatile WeakReference<String> mTextReference;
+    /**
+     * 解析器类型 -> 解析结果，304后的新对象与原对象共享
+     */
+    private volatile ConcurrentMap<Class<?>, SoftReference<Object>> mParsed;
 
     public TextCacheable(InputStream is) {
-        mText = IOUtils.readString(is);
-        mDateExpires = System.currentTimeMillis() + TIME_OUT;
+        this(IOUtils.readBytes(is), System.currentTimeMillis() + TIME_OUT, null, null);
+    }
+
+    /**
+     * 过期时间由响应头决定，没有缓存相关的响应头时为5分钟
+     * @param response 状态码为200的响应
+     */
+    public TextCacheable(HttpCacheableDownload.Response response) {
+        this(response.getData(), System.currentTimeMillis() + response.getFreshnessLifetime(TIME_OUT), response.getETag(), response.getLastModified());
+    }
+
+    /**
+     * @param bytes UTF-8编码的文本
+     */
+    private TextCacheable(byte[] bytes, long dateExpires, String eTag, String lastModified) {
+        mDateExpires = dateExpires;
+        mETag = eTag;
+        mLastModified = lastModified;
+        if (bytes == null) {
+            return;
+        }
+        mLength = bytes.length;
+        int threshold = sCompressThreshold;
+        if (threshold >= 0 && bytes.length > threshold) {
+            byte[] compressed = deflate(bytes);
+            if (compressed.length < bytes.length) {
+                mData = compressed;
+                mCompressed = true;
+                return;
+            }
+        }
+        mData = bytes;
+    }
+
+    private TextCacheable(TextCacheable source, long dateExpires, String eTag, String lastModified) {
+        mDateExpires = dateExpires;
+        mETag = eTag;
+        mLastModified = lastModified;
+        mData = source.mData;
+        mCompressed = source.mCompressed;
+        mLength = source.mLength;
+        mTextReference = source.mTextReference;
+        mParsed = source.parsedMap();
+    }
+
+    /**
+     * 设置压缩的阈值，只影响之后创建的缓存对象
+     * @param threshold UTF-8编码后超过此长度的文本用deflate压缩，-1表示不压缩（默认）
+     */
+    public static void setCompressThreshold(int threshold) {
+        sCompressThreshold = threshold;
+    }
+
+    /**
+     * 服务器返回304时调用，内容不变，按304的响应头更新过期时间和验证信息
+     * @param response 状态码为304的响应
+     * @return 新的缓存对象，与原对象共享文本数据
+     */
+    TextCacheable revalidated(HttpCacheableDownload.Response response) {
+        String eTag = response.getETag() != null ? response.getETag() : mETag;
+        String lastModified = response.getLastModified() != null ? response.getLastModified() : mLastModified;
+        long dateExpires = System.currentTimeMillis() + response.getFreshnessLifetime(TIME_OUT);
+        return new TextCacheable(this, dateExpires, eTag, lastModified);
+    }
+
+    /**
+     * 从 {@linkplain #toData()} 返回的数据恢复缓存对象，会保留原来的过期时间和验证信息
+     * @param data
+     * @return 数据无效返回null
+     */
+    static TextCacheable fromData(byte[] data) {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (dis.readInt() != DATA_VERSION) {
+                return null;
+            }
+            long dateExpires = dis.readLong();
+            String eTag = dis.readBoolean() ? dis.readUTF() : null;
+            String lastModified = dis.readBoolean() ? dis.readUTF() : null;
+            TextCacheable cacheable = new TextCacheable((byte[]) null, dateExpires, eTag, lastModified);
+            cacheable.mCompressed = dis.readBoolean();
+            cacheable.mLength = dis.readInt();
+            cacheable.mData = new byte[dis.readInt()];
+            dis.readFully(cacheable.mData);
+            return cacheable;
+        } catch (IOException e) {
+            if (DEBUG)
+                e.printStackTrace();
+        } finally {
+            IOUtils.close(dis);
+        }
+        return null;
+    }
+
+    /**
+     * @return 编码后的数据，包含过期时间和验证信息，用于保存到磁盘缓存。文本保持压缩后的形式
+     */
+    byte[] toData() {
+        if (mData == null) {
+            return null;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(mData.length + 64);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(DATA_VERSION);
+            dos.writeLong(mDateExpires);
+            dos.writeBoolean(mETag != null);
+            if (mETag != null) {
+                dos.writeUTF(mETag);
+            }
+            dos.writeBoolean(mLastModified != null);
+            if (mLastModified != null) {
+                dos.writeUTF(mLastModified);
+            }
+            dos.writeBoolean(mCompressed);
+            dos.writeInt(mLength);
+            dos.writeInt(mData.length);
+            dos.write(mData);
+            dos.flush();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            if (DEBUG)
+                e.printStackTrace();
+        } finally {
+            IOUtils.close(dos);
+        }
+        return null;
+    }
+
+    /**
+     * @return 响应的ETag，可能为null
+     */
+    public String getETag() {
+        return mETag;
     }
 
+    /**
+     * @return 响应的Last-Modified，可能为null
+     */
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * @return 是否有文本内容，不需要解码
+     */
+    boolean hasText() {
+        return mData != null;
+    }
+
+    /**
+     * 第一次调用或者上一次解码的结果已经被回收时会重新解码
+     * @return 解码失败返回null
+     */
     public String getText() {
-        return mText;
+        WeakReference<String> reference = mTextReference;
+        String text = reference == null ? null : reference.get();
+        if (text != null || mData == null) {
+            return text;
+        }
+        try {
+            byte[] bytes = mCompressed ? inflate(mData, mLength) : mData;
+            text = new String(bytes, CHARSET);
+            mTextReference = new WeakReference<String>(text);
+        } catch (UnsupportedEncodingException e) {
+            if (DEBUG)
+                e.printStackTrace();
+        } catch (DataFormatException e) {
+            if (DEBUG)
+                e.printStackTrace();
+        }
+        return text;
     }
 
+    /**
+     * @param parserType 解析器的类型
+     * @return 之前用此类型的解析器解析本文本的结果，没有或者已经被回收时返回null
+     */
+    public Object getParsed(Class<?> parserType) {
+        Map<Class<?>, SoftReference<Object>> parsed = mParsed;
+        if (parsed == null) {
+            return null;
+        }
+        SoftReference<Object> reference = parsed.get(parserType);
+        return reference == null ? null : reference.get();
+    }
+
+    /**
+     * 保存解析结果，解析结果会被所有读取此缓存的调用者共享，不应该再被修改
+     * @param parserType 解析器的类型
+     * @param object 为null时删除
+     */
+    public void putParsed(Class<?> parserType, Object object) {
+        if (object == null) {
+            Map<Class<?>, SoftReference<Object>> parsed = mParsed;
+            if (parsed != null) {
+                parsed.remove(parserType);
+            }
+            return;
+        }
+        parsedMap().put(parserType, new SoftReference<Object>(object));
+    }
+
+    private ConcurrentMap<Class<?>, SoftReference<Object>> parsedMap() {
+        ConcurrentMap<Class<?>, SoftReference<Object>> parsed = mParsed;
+        if (parsed == null) {
+            synchronized (this) {
+                parsed = mParsed;
+                if (parsed == null) {
+                    parsed = new ConcurrentHashMap<Class<?>, SoftReference<Object>>(4);
+                    mParsed = parsed;
+                }
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * @return 编码后（可能压缩后）的字节数，在创建时确定
+     */
     @Override
     public int getCacheSize() {
-        return mText == null ? 0 : mText.getBytes().length;
+        return mData == null ? 0 : mData.length;
+    }
+
+    @Override
+    public long getDateExpires() {
+        return mDateExpires;
     }
 
     @Override
@@ -35,8 +286,44 @@ public class TextCacheable implements IExpiresCacheable {
         long expiresTime = System.currentTimeMillis() - mDateExpires;
         boolean expires = expiresTime > 0;
         if (DEBUG && expires)
-            Log.d(TAG, String.format("缓存过期 TIME_OUT:%s, expires time:%s", new Object[] { TIME_OUT, expiresTime }));
+            Log.d(TAG, String.format("缓存过期 ETag:%s, expires time:%s", new Object[] { mETag, expiresTime }));
         return expires;
     }
 
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            byte[] step = new byte[4 * 1024];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(step);
+                baos.write(step, 0, count);
+            }
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int length) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                int count = inflater.inflate(bytes, offset, length - offset);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("truncated data");
+                }
+                offset += count;
+            }
+            return bytes;
+        } finally {
+            inflater.end();
+        }
+    }
+
 }
@@ -0,0 +1,264 @@
+package com.infthink.libs.cache.expires;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <pre>
+ * 分层时间轮，记录每个key的到期时间，{@linkplain #advance(long, List)} 取出已经到期的定时器。
+ * 共4层，每层64个槽，第0层每个槽为一个tick，上一层每个槽为下一层一整圈。tick为1秒时可以表示约194天，更远的时间按最大值处理。
+ * 添加、取消、推进每个tick都是O(1)，高层的槽转到时把其中的定时器重新放入低层。
+ * 同一个key只有一个定时器，重复添加会替换原来的定时器。
+ * </pre>
+ */
+public class TimerWheel<K, V> {
+
+    private static final int BITS = 6;
+    private static final int BUCKETS = 1 << BITS;
+    private static final int MASK = BUCKETS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << (BITS * LEVELS)) - 1;
+
+    private final long mTickMillis;
+    private final Timer<K, V>[][] mWheel;
+    private final ConcurrentMap<K, Timer<K, V>> mTimers;
+    private long mCurrentTick;
+
+    /**
+     * 到期的时间精度为一个tick
+     */
+    public static final class Timer<K, V> {
+
+        private final K mKey;
+        private final V mValue;
+        private final long mTime;
+        private final long mTick;
+        private volatile boolean mAccessed;
+        private Timer<K, V> mPrev;
+        private Timer<K, V> mNext;
+
+        Timer(K key, V value, long time, long tick) {
+            mKey = key;
+            mValue = value;
+            mTime = time;
+            mTick = tick;
+        }
+
+        public K getKey() {
+            return mKey;
+        }
+
+        public V getValue() {
+            return mValue;
+        }
+
+        /**
+         * @return 添加时指定的到期时间
+         */
+        public long getTime() {
+            return mTime;
+        }
+
+        /**
+         * @return 添加后是否调用过 {@linkplain TimerWheel#touch(Object)}
+         */
+        public boolean isAccessed() {
+            return mAccessed;
+        }
+
+    }
+
+    /**
+     * @param tickMillis 时间精度，单位毫秒
+     * @param now 当前时间
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis, long now) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis <= 0");
+        }
+        mTickMillis = tickMillis;
+        mWheel = new Timer[LEVELS][];
+        for (int level = 0; level < LEVELS; level++) {
+            mWheel[level] = new Timer[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                Timer<K, V> sentinel = new Timer<K, V>(null, null, 0, 0);
+                sentinel.mPrev = sentinel;
+                sentinel.mNext = sentinel;
+                mWheel[level][i] = sentinel;
+            }
+        }
+        mTimers = new ConcurrentHashMap<K, Timer<K, V>>();
+        mCurrentTick = now / tickMillis;
+    }
+
+    public long getTickMillis() {
+        return mTickMillis;
+    }
+
+    /**
+     * 添加定时器，替换同一个key原来的定时器
+     * @param key
+     * @param value 到期时随定时器一起返回
+     * @param time 到期时间
+     */
+    public synchronized void schedule(K key, V value, long time) {
+        Timer<K, V> timer = new Timer<K, V>(key, value, time, time / mTickMillis);
+        Timer<K, V> old = mTimers.put(key, timer);
+        if (old != null) {
+            unlink(old);
+        }
+        link(timer);
+    }
+
+    /**
+     * 只有定时器的value与参数相同时才取消，避免取消同一个key后来添加的定时器
+     * @param key
+     * @param value
+     */
+    public synchronized void cancel(K key, V value) {
+        Timer<K, V> timer = mTimers.get(key);
+        if (timer != null && timer.mValue == value) {
+            mTimers.remove(key);
+            unlink(timer);
+        }
+    }
+
+    public synchronized void clear() {
+        for (Timer<K, V> timer : mTimers.values()) {
+            unlink(timer);
+        }
+        mTimers.clear();
+    }
+
+    /**
+     * 标记key被访问过，不加锁，可以在每次读取时调用
+     * @param key
+     */
+    public void touch(K key) {
+        Timer<K, V> timer = mTimers.get(key);
+        if (timer != null && !timer.mAccessed) {
+            timer.mAccessed = true;
+        }
+    }
+
+    public boolean isEmpty() {
+        return mTimers.isEmpty();
+    }
+
+    public int size() {
+        return mTimers.size();
+    }
+
+    /**
+     * 下一次需要调用 {@linkplain #advance(long, List)} 的时间：第0层为最早的定时器所在的tick，
+     * 高层为最早的非空槽转到的时间，此时需要把其中的定时器放入低层。
+     * 最多检查每层的每个槽一次，与定时器的数量无关
+     * @return 时间轮为空时返回Long.MAX_VALUE
+     */
+    public synchronized long nextDeadline() {
+        if (mTimers.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        long nextTick = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = BITS * level;
+            long base = mCurrentTick >>> shift;
+            for (int i = 1; i <= BUCKETS; i++) {
+                long slot = base + i;
+                if ((slot << shift) >= nextTick) {
+                    break;
+                }
+                Timer<K, V> sentinel = mWheel[level][(int) slot & MASK];
+                if (sentinel.mNext != sentinel) {
+                    nextTick = slot << shift;
+                    break;
+                }
+            }
+        }
+        return nextTick == Long.MAX_VALUE ? Long.MAX_VALUE : nextTick * mTickMillis;
+    }
+
+    /**
+     * 推进到当前时间，取出所有到期的定时器
+     * @param now 当前时间
+     * @param expired 到期的定时器加入此列表，已经从时间轮中移除
+     */
+    public synchronized void advance(long now, List<Timer<K, V>> expired) {
+        long targetTick = now / mTickMillis;
+        if (targetTick - mCurrentTick > BUCKETS * BUCKETS) {
+            // 长时间没有推进（例如设备休眠），逐个tick推进代价太大，直接重新放置所有定时器
+            List<Timer<K, V>> timers = new ArrayList<Timer<K, V>>(mTimers.values());
+            for (Timer<K, V> timer : timers) {
+                unlink(timer);
+            }
+            mCurrentTick = targetTick;
+            for (Timer<K, V> timer : timers) {
+                place(timer, expired);
+            }
+            return;
+        }
+        while (mCurrentTick < targetTick) {
+            mCurrentTick++;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((mCurrentTick & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(mWheel[level][(int) (mCurrentTick >>> (BITS * level)) & MASK], expired);
+                }
+            }
+            cascade(mWheel[0][(int) mCurrentTick & MASK], expired);
+        }
+    }
+
+    /**
+     * 取出槽中所有的定时器，到期的加入expired，其余的放入更低的层
+     */
+    private void cascade(Timer<K, V> sentinel, List<Timer<K, V>> expired) {
+        Timer<K, V> timer = sentinel.mNext;
+        sentinel.mPrev = sentinel;
+        sentinel.mNext = sentinel;
+        while (timer != sentinel) {
+            Timer<K, V> next = timer.mNext;
+            timer.mPrev = null;
+            timer.mNext = null;
+            place(timer, expired);
+            timer = next;
+        }
+    }
+
+    private void place(Timer<K, V> timer, List<Timer<K, V>> expired) {
+        if (timer.mTick <= mCurrentTick) {
+            if (mTimers.remove(timer.mKey, timer)) {
+                expired.add(timer);
+            }
+        } else {
+            link(timer);
+        }
+    }
+
+    private void link(Timer<K, V> timer) {
+        long tick = Math.max(timer.mTick, mCurrentTick + 1);
+        long delta = Math.min(tick - mCurrentTick, MAX_DELTA);
+        tick = mCurrentTick + delta;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (BITS * (level + 1)))) {
+            level++;
+        }
+        Timer<K, V> sentinel = mWheel[level][(int) (tick >>> (BITS * level)) & MASK];
+        timer.mPrev = sentinel.mPrev;
+        timer.mNext = sentinel;
+        sentinel.mPrev.mNext = timer;
+        sentinel.mPrev = timer;
+    }
+
+    private void unlink(Timer<K, V> timer) {
+        if (timer.mPrev != null) {
+            timer.mPrev.mNext = timer.mNext;
+            timer.mNext.mPrev = timer.mPrev;
+            timer.mPrev = null;
+            timer.mNext = null;
+        }
+    }
+
+}
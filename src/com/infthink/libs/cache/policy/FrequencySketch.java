@@ -0,0 +1,114 @@
+package com.infthink.libs.cache.policy;
+
+/**
+ * <pre>
+ * 基于Count-Min Sketch的访问频率估计，用于TinyLFU的准入判断。
+ * 每个计数器占4位，一个long保存16个计数器，每个key对应4个计数器，估计值取其中的最小值，最大为15。
+ * 累计的访问次数达到计数器数量的10倍时，所有计数器减半，使频率随时间衰减。
+ * 非线程安全。
+ * </pre>
+ */
+public class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int[] SEEDS = { 0x97cb3127, 0xab7b22b5, 0xc2b2ae35, 0x85ebca6b };
+    private static final int MINIMUM_TABLE_SIZE = 8;
+
+    private long[] mTable;
+    private int mTableMask;
+    private int mSampleSize;
+    private int mAdditions;
+
+    public FrequencySketch() {
+        ensureCapacity(0);
+    }
+
+    /**
+     * <pre>
+     * 根据记录数扩容，表的大小加倍，之前的频率信息保留。
+     * 计数器在表中的位置取hash的低位，扩容后的位置的低位就是原来的位置，所以把原来的表复制到新表的每一半即可，
+     * 与Count-Min Sketch相同，估计值只会偏大。
+     * </pre>
+     * @param maximumSize 预计的记录数
+     */
+    public void ensureCapacity(int maximumSize) {
+        int tableSize = MINIMUM_TABLE_SIZE;
+        while (tableSize < maximumSize && tableSize < (1 << 30)) {
+            tableSize <<= 1;
+        }
+        if (mTable != null && mTable.length >= tableSize) {
+            return;
+        }
+        long[] table = new long[tableSize];
+        if (mTable != null) {
+            for (int i = 0; i < tableSize; i += mTable.length) {
+                System.arraycopy(mTable, 0, table, i, mTable.length);
+            }
+        }
+        mTable = table;
+        mTableMask = tableSize - 1;
+        mSampleSize = 10 * tableSize;
+    }
+
+    /**
+     * @param key
+     * @return 估计的访问频率 0~15
+     */
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int offset = counterOffset(hash, i);
+            int count = (int) ((mTable[index] >>> offset) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * 访问频率加1
+     * @param key
+     */
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int offset = counterOffset(hash, i);
+            long mask = 0xfL << offset;
+            if ((mTable[index] & mask) != mask) {
+                mTable[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++mAdditions >= mSampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < mTable.length; i++) {
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mAdditions >>>= 1;
+    }
+
+    private int indexOf(int hash, int i) {
+        int h = (hash ^ SEEDS[i]) * SEEDS[i];
+        h ^= h >>> 16;
+        return h & mTableMask;
+    }
+
+    private static int counterOffset(int hash, int i) {
+        // 每个long中有16个计数器，用hash的不同部分为4个计数器选择位置
+        return (((hash >>> (i << 3)) & 0xf) << 2);
+    }
+
+    private static int spread(int h) {
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        return (h >>> 16) ^ h;
+    }
+
+}
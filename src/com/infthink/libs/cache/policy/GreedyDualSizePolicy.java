@@ -0,0 +1,139 @@
+package com.infthink.libs.cache.policy;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * <pre>
+ * GreedyDual-Size淘汰策略，优先淘汰每单位大小重建代价最小的记录。
+ * 每条记录的优先级为 L + cost / size，淘汰优先级最低的记录，并把L提高到被淘汰记录的优先级；
+ * 记录被读取时按当前的L重新计算优先级。L随淘汰不断增加，很久没有被读取的记录即使代价大也会逐渐被淘汰。
+ * 例如从资源中1毫秒就能解码的小图标会先于通过移动网络下载了800毫秒的大图被淘汰。
+ * 还不知道代价的记录（例如通过put放入的）按已知代价的平均值计算。
+ * 被移除的记录的代价保留一段时间（最多与当前记录数相同，至少 {@value #MIN_REMEMBERED_COSTS} 个），由软引用等途径恢复时沿用上一次的代价。
+ * L为整个缓存共用的一个值，所有段的记录在同一个队列中比较。
+ * </pre>
+ * @see com.infthink.libs.cache.LruCachePool#LruCachePool(int, int, IEvictionPolicyFactory)
+ */
+public class GreedyDualSizePolicy<K> implements ICostAwarePolicy<K> {
+
+    public static final IEvictionPolicyFactory FACTORY = new IEvictionPolicyFactory() {
+        @Override
+        public <K> IEvictionPolicy<K> createPolicy() {
+            return new GreedyDualSizePolicy<K>();
+        }
+    };
+
+    private static final int MIN_REMEMBERED_COSTS = 64;
+
+    private final HashMap<K, Node<K>> mNodes = new HashMap<K, Node<K>>();
+    private final LinkedHashMap<K, Long> mRemovedCosts = new LinkedHashMap<K, Long>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Long> eldest) {
+            return size() > Math.max(MIN_REMEMBERED_COSTS, mNodes.size());
+        }
+    };
+    private final TreeSet<Node<K>> mQueue = new TreeSet<Node<K>>();
+    private double mInflation;
+    private long mSequence;
+    private double mTotalCost;
+    private long mCostCount;
+
+    private static final class Node<K> implements Comparable<Node<K>> {
+
+        final K key;
+        int size;
+        long cost = -1;
+        double priority;
+        long sequence;
+
+        Node(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public int compareTo(Node<K> other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            // 优先级相同时先淘汰最久未访问的
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+
+    }
+
+    @Override
+    public void onAccess(K key) {
+        Node<K> node = mNodes.get(key);
+        if (node != null) {
+            reprioritize(node);
+        }
+    }
+
+    @Override
+    public void onInsert(K key, int size) {
+        Node<K> node = mNodes.get(key);
+        if (node == null) {
+            node = new Node<K>(key);
+            Long cost = mRemovedCosts.remove(key);
+            if (cost != null) {
+                node.cost = cost;
+            }
+            mNodes.put(key, node);
+        } else {
+            mQueue.remove(node);
+        }
+        node.size = size;
+        update(node);
+    }
+
+    @Override
+    public void onCost(K key, long cost) {
+        Node<K> node = mNodes.get(key);
+        if (node == null || cost < 0) {
+            return;
+        }
+        mTotalCost += cost;
+        mCostCount++;
+        node.cost = cost;
+        reprioritize(node);
+    }
+
+    @Override
+    public void onRemove(K key) {
+        Node<K> node = mNodes.remove(key);
+        if (node != null) {
+            mQueue.remove(node);
+            if (node.cost >= 0) {
+                mRemovedCosts.put(key, node.cost);
+            }
+        }
+    }
+
+    @Override
+    public K victim() {
+        if (mQueue.isEmpty()) {
+            return null;
+        }
+        Node<K> node = mQueue.first();
+        mInflation = Math.max(mInflation, node.priority);
+        return node.key;
+    }
+
+    private void reprioritize(Node<K> node) {
+        mQueue.remove(node);
+        update(node);
+    }
+
+    private void update(Node<K> node) {
+        long cost = node.cost >= 0 ? node.cost : mCostCount == 0 ? 1 : (long) (mTotalCost / mCostCount);
+        node.priority = mInflation + (double) cost / Math.max(1, node.size);
+        node.sequence = mSequence++;
+        mQueue.add(node);
+    }
+
+}
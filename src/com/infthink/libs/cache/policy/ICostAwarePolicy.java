@@ -0,0 +1,19 @@
+package com.infthink.libs.cache.policy;
+
+/**
+ * <pre>
+ * 需要知道重新创建记录的代价的淘汰策略。
+ * 与 {@linkplain IEvictionPolicy} 的其它方法相同，在段锁内调用。
+ * </pre>
+ * @see com.infthink.libs.cache.SegmentedLruCache#recordCost(Object, long)
+ */
+public interface ICostAwarePolicy<K> extends IEvictionPolicy<K> {
+
+    /**
+     * 记录已经在缓存中的记录的创建代价，在 {@linkplain #onInsert(Object, int)} 之后调用
+     * @param key
+     * @param cost 创建代价，例如加载耗时的纳秒数
+     */
+    public void onCost(K key, long cost);
+
+}
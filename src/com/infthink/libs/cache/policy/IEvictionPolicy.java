@@ -0,0 +1,39 @@
+package com.infthink.libs.cache.policy;
+
+/**
+ * <pre>
+ * 缓存的淘汰和准入策略，决定空间不足时淘汰哪一条记录。
+ * 每个 {@linkplain com.infthink.libs.cache.SegmentedLruCache} 的所有段共用一个策略实例，策略看到全局的访问顺序，
+ * 所有方法都在策略实例的锁内调用，实现不需要考虑线程安全，也不能再访问缓存。
+ * </pre>
+ * @see IEvictionPolicyFactory
+ */
+public interface IEvictionPolicy<K> {
+
+    /**
+     * 记录被读取命中
+     * @param key
+     */
+    public void onAccess(K key);
+
+    /**
+     * 加入新记录，或者已有记录的值被替换
+     * @param key
+     * @param size 记录的大小
+     */
+    public void onInsert(K key, int size);
+
+    /**
+     * 记录被删除或者被淘汰
+     * @param key
+     */
+    public void onRemove(K key);
+
+    /**
+     * 选出下一条应该被淘汰的记录，实现可以在此时决定新记录是否准入。
+     * 此方法不应该删除返回的记录，缓存删除后会调用 {@linkplain #onRemove(Object)}。
+     * @return 没有可淘汰的记录时返回null
+     */
+    public K victim();
+
+}
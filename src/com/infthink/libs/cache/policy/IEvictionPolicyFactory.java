@@ -0,0 +1,10 @@
+package com.infthink.libs.cache.policy;
+
+/**
+ * 为每个缓存创建一个独立的 {@linkplain IEvictionPolicy}
+ */
+public interface IEvictionPolicyFactory {
+
+    public <K> IEvictionPolicy<K> createPolicy();
+
+}
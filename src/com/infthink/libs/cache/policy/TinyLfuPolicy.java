@@ -0,0 +1,176 @@
+package com.infthink.libs.cache.policy;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * <pre>
+ * W-TinyLFU淘汰策略。
+ * 新记录先进入一个很小的LRU窗口，窗口溢出时，窗口中最旧的记录与主区域中将被淘汰的记录比较访问频率，
+ * 频率更高的一方留下。主区域是分段LRU，被再次访问的记录从试用区晋升到保护区。
+ * 快速滑动长列表时产生的大量只访问一次的记录只会在窗口中停留，不会把经常访问的记录挤出缓存。
+ * 访问频率由 {@linkplain FrequencySketch} 估计。
+ * </pre>
+ */
+public class TinyLfuPolicy<K> implements IEvictionPolicy<K> {
+
+    /**
+     * 窗口占1%的默认配置
+     */
+    public static final IEvictionPolicyFactory FACTORY = new Factory(1);
+
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final int mWindowPercent;
+    private final FrequencySketch mSketch;
+    private final LinkedHashMap<K, Integer> mWindow;
+    private final LinkedHashMap<K, Integer> mProbation;
+    private final LinkedHashMap<K, Integer> mProtected;
+    private long mWindowSize;
+    private long mProbationSize;
+    private long mProtectedSize;
+
+    /**
+     * @param windowPercent 窗口占缓存大小的百分比 0~100
+     */
+    public TinyLfuPolicy(int windowPercent) {
+        if (windowPercent < 0 || windowPercent > 100) {
+            throw new IllegalArgumentException("windowPercent must be in [0, 100]");
+        }
+        mWindowPercent = windowPercent;
+        mSketch = new FrequencySketch();
+        mWindow = new LinkedHashMap<K, Integer>(16, 0.75f, true);
+        mProbation = new LinkedHashMap<K, Integer>(16, 0.75f, true);
+        mProtected = new LinkedHashMap<K, Integer>(16, 0.75f, true);
+    }
+
+    @Override
+    public void onAccess(K key) {
+        mSketch.increment(key);
+        if (mWindow.get(key) != null) {
+            return;
+        }
+        Integer size = mProbation.remove(key);
+        if (size != null) {
+            mProbationSize -= size;
+            mProtected.put(key, size);
+            mProtectedSize += size;
+            demoteProtected();
+            return;
+        }
+        mProtected.get(key);
+    }
+
+    @Override
+    public void onInsert(K key, int size) {
+        Integer old;
+        if ((old = mWindow.get(key)) != null) {
+            mWindow.put(key, size);
+            mWindowSize += size - old;
+        } else if ((old = mProbation.get(key)) != null) {
+            mProbation.put(key, size);
+            mProbationSize += size - old;
+        } else if ((old = mProtected.get(key)) != null) {
+            mProtected.put(key, size);
+            mProtectedSize += size - old;
+        }
+        if (old != null) {
+            onAccess(key);
+            return;
+        }
+        mSketch.increment(key);
+        mWindow.put(key, size);
+        mWindowSize += size;
+        mSketch.ensureCapacity(mWindow.size() + mProbation.size() + mProtected.size());
+    }
+
+    @Override
+    public void onRemove(K key) {
+        Integer size;
+        if ((size = mWindow.remove(key)) != null) {
+            mWindowSize -= size;
+        } else if ((size = mProbation.remove(key)) != null) {
+            mProbationSize -= size;
+        } else if ((size = mProtected.remove(key)) != null) {
+            mProtectedSize -= size;
+        }
+    }
+
+    @Override
+    public K victim() {
+        long windowMax = (mWindowSize + mProbationSize + mProtectedSize) * mWindowPercent / 100;
+        // 缓存未满时加入的记录会让窗口超出上限，这些记录直接进入试用区，只对最后一条超出的记录做准入判断
+        K eldest;
+        while ((eldest = eldest(mWindow)) != null && mWindowSize - mWindow.get(eldest) > windowMax) {
+            moveToProbation(eldest);
+        }
+        if (mWindowSize > windowMax && !mWindow.isEmpty()) {
+            K candidate = eldest(mWindow);
+            K mainVictim = eldest(mProbation);
+            if (mainVictim == null) {
+                mainVictim = eldest(mProtected);
+            }
+            if (mainVictim == null) {
+                return candidate;
+            }
+            if (mSketch.frequency(candidate) > mSketch.frequency(mainVictim)) {
+                // 准入：窗口中的记录进入试用区，淘汰主区域的记录
+                moveToProbation(candidate);
+                return mainVictim;
+            }
+            return candidate;
+        }
+        K victim = eldest(mProbation);
+        if (victim == null) {
+            victim = eldest(mProtected);
+        }
+        if (victim == null) {
+            victim = eldest(mWindow);
+        }
+        return victim;
+    }
+
+    private void moveToProbation(K key) {
+        Integer size = mWindow.remove(key);
+        if (size != null) {
+            mWindowSize -= size;
+            mProbation.put(key, size);
+            mProbationSize += size;
+        }
+    }
+
+    private void demoteProtected() {
+        long protectedMax = (mProbationSize + mProtectedSize) * PROTECTED_PERCENT / 100;
+        while (mProtectedSize > protectedMax && mProtected.size() > 1) {
+            K key = eldest(mProtected);
+            Integer size = mProtected.remove(key);
+            mProtectedSize -= size;
+            mProbation.put(key, size);
+            mProbationSize += size;
+        }
+    }
+
+    private static <K> K eldest(LinkedHashMap<K, Integer> map) {
+        Iterator<K> iterator = map.keySet().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    public static class Factory implements IEvictionPolicyFactory {
+
+        private final int mWindowPercent;
+
+        /**
+         * @param windowPercent 窗口占缓存大小的百分比 0~100
+         */
+        public Factory(int windowPercent) {
+            mWindowPercent = windowPercent;
+        }
+
+        @Override
+        public <K> IEvictionPolicy<K> createPolicy() {
+            return new TinyLfuPolicy<K>(mWindowPercent);
+        }
+
+    }
+
+}
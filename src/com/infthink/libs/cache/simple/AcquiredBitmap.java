@@ -0,0 +1,32 @@
+package com.infthink.libs.cache.simple;
+
+import android.graphics.Bitmap;
+
+/**
+ * 从 {@linkplain BitmapCachePool#acquireBitmap(com.infthink.libs.cache.expires.BitmapCacheId)} 取得的Bitmap，
+ * 保存在View（或者listener）的tag中，重新绑定其它图片时release
+ */
+final class AcquiredBitmap {
+
+    final BitmapCachePool pool;
+    final Bitmap bitmap;
+
+    AcquiredBitmap(BitmapCachePool pool, Bitmap bitmap) {
+        this.pool = pool;
+        this.bitmap = bitmap;
+    }
+
+    void release() {
+        pool.releaseBitmap(bitmap);
+    }
+
+    /**
+     * @param tag tag中原来保存的对象，是AcquiredBitmap时release
+     */
+    static void release(Object tag) {
+        if (tag instanceof AcquiredBitmap) {
+            ((AcquiredBitmap) tag).release();
+        }
+    }
+
+}
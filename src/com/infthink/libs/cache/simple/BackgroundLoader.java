@@ -13,7 +13,6 @@ import android.view.View;
 
 import com.infthink.libs.base.BaseApplication;
 import com.infthink.libs.cache.expires.BitmapCacheId;
-import com.infthink.libs.cache.expires.BitmapCacheable;
 import com.infthink.libs.common.os.AsyncFiloTask;
 import com.infthink.libs.common.utils.SystemUtils;
 
@@ -29,10 +28,10 @@ public class BackgroundLoader {
         }
         view.setTag(TAG_IMAGE_URL, imageUrl);
         final WeakReference<View> refView = new WeakReference<View>(view);
-        AsyncFiloTask<Void, Void, Bitmap> task = new AsyncFiloTask<Void, Void, Bitmap>() {
+        AsyncFiloTask<Void, Void, AcquiredBitmap> task = new AsyncFiloTask<Void, Void, AcquiredBitmap>() {
 
             @Override
-            protected Bitmap doInBackground(Void... params) {
+            protected AcquiredBitmap doInBackground(Void... params) {
                 View view = refView.get();
                 if (view != null && imageUrl.equals(view.getTag(TAG_IMAGE_URL))) {
                     return getBitmap(cachePool, imageUrl);
@@ -42,19 +41,28 @@ public class BackgroundLoader {
             }
 
             @Override
-            protected void onPostExecute(Bitmap result) {
-                if (result != null) {
+            protected void onPostExecute(AcquiredBitmap acquired) {
+                if (acquired != null) {
                     View view = refView.get();
                     if (view != null) {
                         if (imageUrl.equals(view.getTag(TAG_IMAGE_URL))) {
-                            result = result.copy(Bitmap.Config.ARGB_8888, true);
+                            Bitmap result;
+                            try {
+                                result = acquired.bitmap.copy(Bitmap.Config.ARGB_8888, true);
+                            } finally {
+                                // 只显示复制出的Bitmap，复制完成后不再需要持有
+                                acquired.release();
+                            }
                             Canvas canvas = new Canvas(result);
                             canvas.drawARGB(0xe0, 0, 0, 0);
                             GradientDrawable drawable = new GradientDrawable(Orientation.TOP_BOTTOM, new int[] { 0x00000000, 0xff000000 });
                             drawable.draw(canvas);
                             view.setBackgroundDrawable(new BitmapDrawable(view.getResources(), result));
+                        } else {
+                            acquired.release();
                         }
                     } else {
+                        acquired.release();
                         if (DEBUG) {
                             Log.d(TAG, "WeakReference 对 ImageView 的引用为null");
                         }
@@ -62,16 +70,23 @@ public class BackgroundLoader {
                 }
             }
 
+            @Override
+            protected void onCancelled(AcquiredBitmap acquired) {
+                if (acquired != null) {
+                    acquired.release();
+                }
+            }
+
         };
         view.setTag(TAG_TASK, task);
         task.execute();
     }
 
-    private static Bitmap getBitmap(BitmapCachePool cachePool, String imageUrl) {
+    private static AcquiredBitmap getBitmap(BitmapCachePool cachePool, String imageUrl) {
         DisplayMetrics displayMetrics = SystemUtils.getDisplayMetrics(BaseApplication.getInstance());
-        BitmapCacheId cacheId = new BitmapCacheId(imageUrl, displayMetrics.widthPixels, displayMetrics.heightPixels);
-        BitmapCacheable cacheable = cachePool.getCache(cacheId);
-        return cacheable == null ? null : cacheable.getBitmap();
+        BitmapCacheId cacheId = BitmapCacheId.obtain(imageUrl, displayMetrics.widthPixels, displayMetrics.heightPixels);
+        Bitmap bitmap = cachePool.acquireBitmap(cacheId);
+        return bitmap == null ? null : new AcquiredBitmap(cachePool, bitmap);
     }
 
 }
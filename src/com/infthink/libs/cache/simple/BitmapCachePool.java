@@ -1,13 +1,550 @@
 package com.infthink.libs.cache.simple;
 
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.infthink.libs.cache.RemovalCause;
 import com.infthink.libs.cache.expires.BitmapCacheId;
 import com.infthink.libs.cache.expires.BitmapCacheable;
 import com.infthink.libs.cache.expires.ExpiresCachePool;
+import com.infthink.libs.cache.policy.IEvictionPolicyFactory;
+import com.infthink.libs.common.utils.BitmapReusePool;
 
 public class BitmapCachePool extends ExpiresCachePool<BitmapCacheId, BitmapCacheable> {
 
+    private static final String TAG = BitmapCachePool.class.getSimpleName();
+    private static final int MAX_ACQUIRE_ATTEMPTS = 3;
+    private volatile BitmapReusePool mReusePool;
+    /**
+     * 同一来源在强引用缓存中的所有尺寸，只用于查找可以缩小的大尺寸版本，允许与缓存短暂不一致
+     */
+    private final Map<String, List<BitmapCacheId>> mVariants = new HashMap<String, List<BitmapCacheId>>();
+    private volatile EncodedBitmapCache mEncodedCache;
+    private volatile boolean mContentDedup;
+    /**
+     * 内容摘要到共用的缓存对象，与mSharedContents一起由mContents的锁保护
+     */
+    private final Map<String, SharedContent> mContents = new HashMap<String, SharedContent>();
+    private final Map<BitmapCacheable, SharedContent> mSharedContents = new IdentityHashMap<BitmapCacheable, SharedContent>();
+    /**
+     * 共用记录已经释放的缓存对象，之后在没有记录的情况下回到强引用缓存时可能仍被共用，不能放入复用池。BitmapCacheable没有覆盖equals，按对象比较
+     */
+    private final Map<BitmapCacheable, Boolean> mReleasedContents = new WeakHashMap<BitmapCacheable, Boolean>();
+    private final AtomicLong mDedupCount = new AtomicLong();
+    /**
+     * 因为空间不足被淘汰、要放入复用池的缓存对象，值为是否还在等待写回处理完。之后不能再被 {@linkplain #acquireBitmap(BitmapCacheable)}。
+     * 与mActiveBitmaps、mDeferredBitmaps一起由它的锁保护。BitmapCacheable和Bitmap都没有覆盖equals，按对象比较
+     */
+    private final Map<BitmapCacheable, Boolean> mRecyclables = new WeakHashMap<BitmapCacheable, Boolean>();
+    /**
+     * 被acquire的Bitmap的引用计数。键为弱引用，调用者没有release就丢弃Bitmap时不会泄漏，只是不会再放入复用池
+     */
+    private final Map<Bitmap, int[]> mActiveBitmaps = new WeakHashMap<Bitmap, int[]>();
+    /**
+     * 被淘汰时仍然被acquire的Bitmap，最后一次release后再放入复用池
+     */
+    private final Map<Bitmap, Boolean> mDeferredBitmaps = new WeakHashMap<Bitmap, Boolean>();
+
+    /**
+     * 内容相同的多个CacheId共用的缓存对象，holders为强引用缓存中指向它的CacheId，keys为所有曾经共用它的CacheId
+     */
+    private static final class SharedContent {
+
+        final String contentKey;
+        final BitmapCacheable cacheable;
+        final Set<BitmapCacheId> holders = new HashSet<BitmapCacheId>(2);
+        final Set<BitmapCacheId> keys = new HashSet<BitmapCacheId>(2);
+
+        SharedContent(String contentKey, BitmapCacheable cacheable) {
+            this.contentKey = contentKey;
+            this.cacheable = cacheable;
+        }
+
+    }
+
     public BitmapCachePool(int maxSize) {
         super(maxSize);
     }
 
+    /**
+     * @param maxSize
+     * @param policyFactory 强引用缓存的淘汰策略，为null时使用LRU
+     */
+    public BitmapCachePool(int maxSize, IEvictionPolicyFactory policyFactory) {
+        super(maxSize, policyFactory);
+    }
+
+    /**
+     * <pre>
+     * 设置复用池后，因为空间不足被淘汰的Bitmap会同时从软引用中删除并放入复用池，供之后的解码复用。
+     * 需要长期持有的Bitmap（例如设置给View显示的）应该通过 {@linkplain #acquireBitmap(BitmapCacheId)} 取得，不再使用时调用 {@linkplain #releaseBitmap(Bitmap)}，
+     * 被acquire的Bitmap在最后一次release之后才会放入复用池。直接通过getCache取得的Bitmap随时可能被复用，只能短暂使用。
+     * 通常与 {@linkplain com.infthink.libs.common.utils.BitmapUtils#setBitmapReusePool(BitmapReusePool)} 设置同一个复用池。
+     * 同时设置了 {@linkplain #setWriteBehind(com.infthink.libs.cache.IRemovalListener)} 时，写回处理完之后才放入复用池。
+     * 内存紧张时释放的Bitmap不放入复用池。
+     * </pre>
+     * @param reusePool 为null表示不复用
+     */
+    public void setBitmapReusePool(BitmapReusePool reusePool) {
+        mReusePool = reusePool;
+    }
+
+    public BitmapReusePool getBitmapReusePool() {
+        return mReusePool;
+    }
+
+    /**
+     * <pre>
+     * 设置编码数据的内存缓存，位于软引用和磁盘缓存之间，与Bitmap的容量分别计算。
+     * 开启后网络图片下载（或者从磁盘缓存读取）的原始数据同时保存在内存中，Bitmap被淘汰后再次读取时直接解码，
+     * 不同尺寸的CacheId共用同一份数据。内存紧张时按与Bitmap相同的比例释放。
+     * </pre>
+     * @param maxSize 原始数据的字节数之和的上限，小于等于0表示关闭
+     */
+    public void setEncodedCacheSize(int maxSize) {
+        EncodedBitmapCache old = mEncodedCache;
+        if (maxSize <= 0) {
+            mEncodedCache = null;
+            if (old != null) {
+                old.evictAll();
+            }
+        } else if (old == null) {
+            mEncodedCache = new EncodedBitmapCache(maxSize);
+        } else {
+            old.resize(maxSize);
+        }
+    }
+
+    /**
+     * @return 编码数据的内存缓存，未开启时返回null
+     */
+    public EncodedBitmapCache getEncodedCache() {
+        return mEncodedCache;
+    }
+
+    /**
+     * <pre>
+     * 按内容共用网络图片的缓存对象。同一张图片经常以不同的url提供，例如带不同的参数或者来自不同的镜像，
+     * 开启后下载（或者从磁盘缓存读取）的数据按内容计算SHA-256摘要，内容、宽高限制和解码格式都相同的CacheId共用同一个已经解码的Bitmap，不再重复解码。
+     * 共用的Bitmap在所有CacheId都被移除后才会放入复用池，同时删除这些CacheId的软引用；之后没有共用记录又回到缓存中的不再放入复用池。
+     * 强引用缓存的容量仍然按每个CacheId分别计算，所以实际占用的内存会少于 {@linkplain #size()}。
+     * </pre>
+     * @param contentDedup
+     */
+    public void setContentDedup(boolean contentDedup) {
+        mContentDedup = contentDedup;
+    }
+
+    public boolean isContentDedup() {
+        return mContentDedup;
+    }
+
+    /**
+     * @return 因为内容相同而共用了已有Bitmap的次数
+     */
+    public long getContentDedupCount() {
+        return mDedupCount.get();
+    }
+
+    /**
+     * 同时释放编码数据的内存缓存，并清空复用池，释放淘汰的Bitmap
+     */
+    @Override
+    public void trimMemory(int level) {
+        super.trimMemory(level);
+        EncodedBitmapCache encodedCache = mEncodedCache;
+        if (encodedCache != null) {
+            encodedCache.trimMemory(level);
+        }
+        BitmapReusePool reusePool = mReusePool;
+        if (reusePool != null) {
+            reusePool.clear();
+        }
+    }
+
+    @Override
+    protected BitmapCacheable load(BitmapCacheId cacheId) {
+        BitmapCacheable cacheable = super.load(cacheId);
+        if (cacheable != null) {
+            retainContent(cacheId, cacheable);
+            addVariant(cacheId);
+        }
+        return cacheable;
+    }
+
+    @Override
+    public void putCache(BitmapCacheId cacheId, BitmapCacheable cacheable) {
+        retainContent(cacheId, cacheable);
+        super.putCache(cacheId, cacheable);
+        addVariant(cacheId);
+    }
+
+    @Override
+    protected boolean needsData(BitmapCacheId cacheId) {
+        return (mContentDedup || mEncodedCache != null) && cacheId.getDiskKey() != null;
+    }
+
+    /**
+     * 开启编码数据的内存缓存时保存原始数据；开启按内容共用时，先查找内容相同的已解码的缓存对象，找不到时再解码
+     */
+    @Override
+    protected BitmapCacheable createCache(BitmapCacheId cacheId, byte[] data) {
+        EncodedBitmapCache encodedCache = mEncodedCache;
+        if (encodedCache != null) {
+            encodedCache.putData(cacheId.getDiskKey(), data);
+        }
+        String contentKey = !mContentDedup || cacheId.getDiskKey() == null ? null : contentKey(cacheId, data);
+        if (contentKey == null) {
+            return super.createCache(cacheId, data);
+        }
+        BitmapCacheable cacheable = acquireContent(cacheId, contentKey);
+        if (cacheable != null) {
+            return cacheable;
+        }
+        cacheable = super.createCache(cacheId, data);
+        if (cacheable == null) {
+            return null;
+        }
+        synchronized (mContents) {
+            // 其它CacheId可能同时解码了相同的内容，使用先完成的
+            BitmapCacheable shared = acquireContent(cacheId, contentKey);
+            if (shared != null) {
+                return shared;
+            }
+            SharedContent content = new SharedContent(contentKey, cacheable);
+            content.holders.add(cacheId);
+            content.keys.add(cacheId);
+            mContents.put(contentKey, content);
+            mSharedContents.put(cacheable, content);
+        }
+        return cacheable;
+    }
+
+    /**
+     * 共用前不再比较原始数据，键必须足以区分不同的内容：使用编码数据的SHA-256摘要，加上解码尺寸和格式
+     * @return 数据为null或者不支持SHA-256时返回null，不共用
+     */
+    private static String contentKey(BitmapCacheId cacheId, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(data);
+            StringBuilder sb = new StringBuilder(digest.length * 2 + 24);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0x0f, 16));
+                sb.append(Character.forDigit(b & 0x0f, 16));
+            }
+            sb.append('/').append(cacheId.getMaxWidth()).append('x').append(cacheId.getMaxHeight());
+            sb.append('/').append(cacheId.getConfig());
+            return sb.toString();
+        } catch (Exception e) {
+            if (DEBUG)
+                e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @return 内容相同的缓存对象，cacheId同时成为它的持有者；不存在时返回null
+     */
+    private BitmapCacheable acquireContent(BitmapCacheId cacheId, String contentKey) {
+        synchronized (mContents) {
+            SharedContent content = mContents.get(contentKey);
+            if (content == null) {
+                return null;
+            }
+            Bitmap bitmap = content.cacheable.getBitmap();
+            if (bitmap == null || bitmap.isRecycled()) {
+                return null;
+            }
+            content.keys.add(cacheId);
+            if (content.holders.add(cacheId)) {
+                mDedupCount.incrementAndGet();
+                if (DEBUG)
+                    Log.d(TAG, String.format("内容相同，共用已解码的Bitmap %s, 持有者 %s", cacheId.getSourceKey(), content.holders.size()));
+            }
+            return content.cacheable;
+        }
+    }
+
+    /**
+     * 共用的缓存对象经由软引用等途径重新放入强引用缓存时，重新记录持有者
+     */
+    private void retainContent(BitmapCacheId cacheId, BitmapCacheable cacheable) {
+        synchronized (mContents) {
+            SharedContent content = mSharedContents.get(cacheable);
+            if (content != null) {
+                content.holders.add(cacheId);
+                content.keys.add(cacheId);
+            }
+        }
+    }
+
+    /**
+     * @return 还有其它CacheId持有cacheable，或者它曾经被共用但已经没有记录时返回null；
+     *         从未被共用时返回空集合；最后一个持有者被移除时返回所有曾经共用它的CacheId
+     */
+    private Set<BitmapCacheId> releaseContent(BitmapCacheId cacheId, BitmapCacheable cacheable) {
+        synchronized (mContents) {
+            SharedContent content = mSharedContents.get(cacheable);
+            if (content == null) {
+                return mReleasedContents.containsKey(cacheable) ? null : new HashSet<BitmapCacheId>(0);
+            }
+            content.holders.remove(cacheId);
+            if (!content.holders.isEmpty()) {
+                return null;
+            }
+            mSharedContents.remove(cacheable);
+            if (mContents.get(content.contentKey) == content) {
+                mContents.remove(content.contentKey);
+            }
+            mReleasedContents.put(cacheable, Boolean.TRUE);
+            return content.keys;
+        }
+    }
+
+    /**
+     * 查找同一来源的尺寸不小于cacheId的缓存，缩小后作为新的缓存对象，不需要重新下载和解码；
+     * 没有时从编码数据的内存缓存中解码
+     */
+    @Override
+    protected BitmapCacheable deriveCache(BitmapCacheId cacheId) {
+        BitmapCacheable cacheable = scaleVariant(cacheId);
+        if (cacheable != null) {
+            return cacheable;
+        }
+        EncodedBitmapCache encodedCache = mEncodedCache;
+        String diskKey = cacheId.getDiskKey();
+        byte[] data = encodedCache == null || diskKey == null ? null : encodedCache.getIfPresent(diskKey);
+        if (data == null) {
+            return null;
+        }
+        cacheable = createCache(cacheId, data);
+        if (DEBUG)
+            Log.d(TAG, String.format("由编码数据解码 %s, %s bytes, %s", diskKey, data.length, cacheable != null));
+        return cacheable;
+    }
+
+    private BitmapCacheable scaleVariant(BitmapCacheId cacheId) {
+        Bitmap source = null;
+        for (BitmapCacheId variant : getVariants(cacheId.getSourceKey())) {
+            if (variant.equals(cacheId) || !cacheId.isCoveredBy(variant)) {
+                continue;
+            }
+            // 缩放期间持有，不会被淘汰后复用
+            Bitmap bitmap = acquireBitmap(getIfPresent(variant));
+            if (bitmap == null) {
+                continue;
+            }
+            if (bitmap.isRecycled() || (source != null && bitmap.getByteCount() >= source.getByteCount())) {
+                releaseBitmap(bitmap);
+                continue;
+            }
+            releaseBitmap(source);
+            source = bitmap;
+        }
+        if (source == null) {
+            return null;
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = scaleToFit(source, cacheId.getMaxWidth(), cacheId.getMaxHeight());
+        } finally {
+            releaseBitmap(source);
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        if (DEBUG)
+            Log.d(TAG, String.format("由大尺寸缓存生成 %s, %sx%s -> %sx%s", cacheId.getSourceKey(), source.getWidth(), source.getHeight(), bitmap.getWidth(), bitmap.getHeight()));
+        return new BitmapCacheable(bitmap);
+    }
+
+    /**
+     * @return 新的Bitmap，即使尺寸不变也会复制，避免两条缓存记录共用同一个Bitmap
+     */
+    private static Bitmap scaleToFit(Bitmap source, int maxWidth, int maxHeight) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        float scale = 1f;
+        if (maxWidth != -1 && width > maxWidth) {
+            scale = Math.min(scale, maxWidth * 1.0f / width);
+        }
+        if (maxHeight != -1 && height > maxHeight) {
+            scale = Math.min(scale, maxHeight * 1.0f / height);
+        }
+        try {
+            if (scale >= 1f) {
+                return source.copy(source.getConfig() == null ? Bitmap.Config.ARGB_8888 : source.getConfig(), source.isMutable());
+            }
+            int scaledWidth = Math.max(1, Math.round(width * scale));
+            int scaledHeight = Math.max(1, Math.round(height * scale));
+            return Bitmap.createScaledBitmap(source, scaledWidth, scaledHeight, true);
+        } catch (OutOfMemoryError e) {
+            if (DEBUG)
+                e.printStackTrace();
+        } catch (RuntimeException e) {
+            // source在缩放期间被持有，不会进入复用池，但仍可能被使用者recycle
+            if (DEBUG)
+                e.printStackTrace();
+        }
+        return null;
+    }
+
+    private void addVariant(BitmapCacheId cacheId) {
+        synchronized (mVariants) {
+            List<BitmapCacheId> variants = mVariants.get(cacheId.getSourceKey());
+            if (variants == null) {
+                variants = new ArrayList<BitmapCacheId>(2);
+                mVariants.put(cacheId.getSourceKey(), variants);
+            }
+            if (!variants.contains(cacheId)) {
+                variants.add(cacheId);
+            }
+        }
+    }
+
+    private void removeVariant(BitmapCacheId cacheId) {
+        synchronized (mVariants) {
+            List<BitmapCacheId> variants = mVariants.get(cacheId.getSourceKey());
+            if (variants != null && variants.remove(cacheId) && variants.isEmpty()) {
+                mVariants.remove(cacheId.getSourceKey());
+            }
+        }
+    }
+
+    private List<BitmapCacheId> getVariants(String sourceKey) {
+        synchronized (mVariants) {
+            List<BitmapCacheId> variants = mVariants.get(sourceKey);
+            return variants == null ? new ArrayList<BitmapCacheId>(0) : new ArrayList<BitmapCacheId>(variants);
+        }
+    }
+
+    /**
+     * 可以放入复用池的缓存对象放入mRecyclables之后才调用super，写回处理完后由 {@linkplain #entryReleased(RemovalCause, BitmapCacheId, BitmapCacheable)} 放入复用池
+     */
+    @Override
+    protected void entryRemoved(RemovalCause cause, BitmapCacheId key, BitmapCacheable oldValue, BitmapCacheable newValue) {
+        if (cause != RemovalCause.REPLACED) {
+            removeVariant(key);
+        }
+        // 仍然被其它CacheId共用、或者可能被共用的Bitmap不能放入复用池
+        Set<BitmapCacheId> keys = oldValue == newValue ? null : releaseContent(key, oldValue);
+        if (keys != null) {
+            // 不论移除的原因，共用记录释放后都删除之前共用的CacheId指向这个Bitmap的软引用，否则之后经由软引用恢复时已经没有共用记录
+            for (BitmapCacheId sharedKey : keys) {
+                removeSoftReference(sharedKey, oldValue);
+            }
+        }
+        if (cause == RemovalCause.SIZE && mReusePool != null && oldValue.getBitmap() != null && keys != null) {
+            removeSoftReference(key, oldValue);
+            synchronized (mRecyclables) {
+                mRecyclables.put(oldValue, Boolean.TRUE);
+            }
+        }
+        super.entryRemoved(cause, key, oldValue, newValue);
+    }
+
+    @Override
+    protected void entryReleased(RemovalCause cause, BitmapCacheId key, BitmapCacheable value) {
+        super.entryReleased(cause, key, value);
+        Bitmap bitmap = value.getBitmap();
+        synchronized (mRecyclables) {
+            if (mRecyclables.get(value) != Boolean.TRUE) {
+                return;
+            }
+            mRecyclables.put(value, Boolean.FALSE);
+            if (mActiveBitmaps.containsKey(bitmap)) {
+                mDeferredBitmaps.put(bitmap, Boolean.TRUE);
+                return;
+            }
+        }
+        recycle(bitmap);
+    }
+
+    /**
+     * 取得需要长期持有的Bitmap，例如设置给View显示，不再使用时必须调用 {@linkplain #releaseBitmap(Bitmap)}
+     * @param cacheId
+     * @return 加载失败时返回null
+     */
+    public Bitmap acquireBitmap(BitmapCacheId cacheId) {
+        // 读取到acquire之间可能被其它线程淘汰，重新读取
+        for (int i = 0; i < MAX_ACQUIRE_ATTEMPTS; i++) {
+            BitmapCacheable cacheable = getCache(cacheId);
+            if (cacheable == null) {
+                return null;
+            }
+            Bitmap bitmap = acquireBitmap(cacheable);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 持有已经取得的缓存对象中的Bitmap，不再使用时必须调用 {@linkplain #releaseBitmap(Bitmap)}
+     * @param cacheable 从此缓存池中取得的缓存对象
+     * @return 缓存对象已经被淘汰并且要放入复用池时返回null，应该通过 {@linkplain #acquireBitmap(BitmapCacheId)} 重新读取
+     */
+    public Bitmap acquireBitmap(BitmapCacheable cacheable) {
+        Bitmap bitmap = cacheable == null ? null : cacheable.getBitmap();
+        if (bitmap == null) {
+            return null;
+        }
+        synchronized (mRecyclables) {
+            if (mRecyclables.containsKey(cacheable)) {
+                return null;
+            }
+            int[] count = mActiveBitmaps.get(bitmap);
+            if (count == null) {
+                count = new int[1];
+                mActiveBitmaps.put(bitmap, count);
+            }
+            count[0]++;
+        }
+        return bitmap;
+    }
+
+    /**
+     * 与 {@linkplain #acquireBitmap(BitmapCacheId)} 成对调用，最后一次release时如果已经被淘汰则放入复用池
+     * @param bitmap
+     */
+    public void releaseBitmap(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        synchronized (mRecyclables) {
+            int[] count = mActiveBitmaps.get(bitmap);
+            if (count == null || --count[0] > 0) {
+                return;
+            }
+            mActiveBitmaps.remove(bitmap);
+            if (mDeferredBitmaps.remove(bitmap) == null) {
+                return;
+            }
+        }
+        recycle(bitmap);
+    }
+
+    private void recycle(Bitmap bitmap) {
+        BitmapReusePool reusePool = mReusePool;
+        if (reusePool != null && bitmap != null) {
+            reusePool.put(bitmap);
+        }
+    }
+
 }
@@ -11,7 +11,6 @@ import android.view.View;
 
 import com.infthink.libs.base.BaseApplication;
 import com.infthink.libs.cache.expires.BitmapCacheId;
-import com.infthink.libs.cache.expires.BitmapCacheable;
 import com.infthink.libs.common.os.AsyncFiloTask;
 import com.infthink.libs.common.utils.SystemUtils;
 
@@ -19,10 +18,14 @@ public class BitmapLoader {
 
     private static final int TAG_IMAGE_URL = 0x5f130000;
     private static final int TAG_TASK = 0x5f130001;
+    private static final int TAG_BITMAP = 0x5f130002;
     private static final String TAG = BitmapLoader.class.getSimpleName();
 
     public static interface IBitmapLoadListener {
 
+        /**
+         * @param bitmap 在下一次加载的结果交给同一个listener之前不会被缓存池复用
+         */
         public void onLoad(Bitmap bitmap);
 
         /**
@@ -91,10 +94,10 @@ public class BitmapLoader {
         }
         listener.setTag(TAG_IMAGE_URL, imageUrl);
         final WeakReference<IBitmapLoadListener> refListener = new WeakReference<IBitmapLoadListener>(listener);
-        AsyncFiloTask<Void, Void, Bitmap> task = new AsyncFiloTask<Void, Void, Bitmap>() {
+        AsyncFiloTask<Void, Void, AcquiredBitmap> task = new AsyncFiloTask<Void, Void, AcquiredBitmap>() {
 
             @Override
-            protected Bitmap doInBackground(Void... params) {
+            protected AcquiredBitmap doInBackground(Void... params) {
                 IBitmapLoadListener listener = refListener.get();
                 if (listener != null && imageUrl.equals(listener.getTag(TAG_IMAGE_URL))) {
                     return getBitmap(cachePool, imageUrl);
@@ -103,14 +106,17 @@ public class BitmapLoader {
             }
 
             @Override
-            protected void onPostExecute(Bitmap result) {
+            protected void onPostExecute(AcquiredBitmap result) {
                 if (result != null) {
                     IBitmapLoadListener listener = refListener.get();
                     if (listener != null) {
                         if (imageUrl.equals(listener.getTag(TAG_IMAGE_URL))) {
-                            listener.onLoad(result);
+                            deliver(listener, result);
+                        } else {
+                            result.release();
                         }
                     } else {
+                        result.release();
                         if (DEBUG) {
                             Log.d(TAG, "WeakReference 对 IBitmapLoadListener 的引用为null");
                         }
@@ -118,6 +124,13 @@ public class BitmapLoader {
                 }
             }
 
+            @Override
+            protected void onCancelled(AcquiredBitmap result) {
+                if (result != null) {
+                    result.release();
+                }
+            }
+
         };
         listener.setTag(TAG_TASK, task);
         task.execute();
@@ -137,10 +150,10 @@ public class BitmapLoader {
         }
         listener.setTag(TAG_IMAGE_URL, resId);
         final WeakReference<IBitmapLoadListener> refListener = new WeakReference<IBitmapLoadListener>(listener);
-        AsyncFiloTask<Void, Void, Bitmap> task = new AsyncFiloTask<Void, Void, Bitmap>() {
+        AsyncFiloTask<Void, Void, AcquiredBitmap> task = new AsyncFiloTask<Void, Void, AcquiredBitmap>() {
 
             @Override
-            protected Bitmap doInBackground(Void... params) {
+            protected AcquiredBitmap doInBackground(Void... params) {
                 IBitmapLoadListener listener = refListener.get();
                 if (listener != null && resId.equals(listener.getTag(TAG_IMAGE_URL))) {
                     return getBitmap(cachePool, resources, resId);
@@ -149,14 +162,17 @@ public class BitmapLoader {
             }
 
             @Override
-            protected void onPostExecute(Bitmap result) {
+            protected void onPostExecute(AcquiredBitmap result) {
                 if (result != null) {
                     IBitmapLoadListener listener = refListener.get();
                     if (listener != null) {
                         if (resId.equals(listener.getTag(TAG_IMAGE_URL))) {
-                            listener.onLoad(result);
+                            deliver(listener, result);
+                        } else {
+                            result.release();
                         }
                     } else {
+                        result.release();
                         if (DEBUG) {
                             Log.d(TAG, "WeakReference 对 IBitmapLoadListener 的引用为null");
                         }
@@ -164,22 +180,39 @@ public class BitmapLoader {
                 }
             }
 
+            @Override
+            protected void onCancelled(AcquiredBitmap result) {
+                if (result != null) {
+                    result.release();
+                }
+            }
+
         };
         listener.setTag(TAG_TASK, task);
         task.execute();
     }
 
-    private static Bitmap getBitmap(BitmapCachePool cachePool, String imageUrl) {
+    /**
+     * 把Bitmap交给listener，listener持有它直到下一次加载的结果交给它时才release，期间不会进入复用池
+     */
+    private static void deliver(IBitmapLoadListener listener, AcquiredBitmap acquired) {
+        Object previous = listener.getTag(TAG_BITMAP);
+        listener.setTag(TAG_BITMAP, acquired);
+        listener.onLoad(acquired.bitmap);
+        AcquiredBitmap.release(previous);
+    }
+
+    private static AcquiredBitmap getBitmap(BitmapCachePool cachePool, String imageUrl) {
         DisplayMetrics displayMetrics = SystemUtils.getDisplayMetrics(BaseApplication.getInstance());
-        BitmapCacheId cacheId = new BitmapCacheId(imageUrl, displayMetrics.widthPixels, displayMetrics.heightPixels);
-        BitmapCacheable cacheable = cachePool.getCache(cacheId);
-        return cacheable == null ? null : cacheable.getBitmap();
+        BitmapCacheId cacheId = BitmapCacheId.obtain(imageUrl, displayMetrics.widthPixels, displayMetrics.heightPixels);
+        Bitmap bitmap = cachePool.acquireBitmap(cacheId);
+        return bitmap == null ? null : new AcquiredBitmap(cachePool, bitmap);
     }
 
-    private static Bitmap getBitmap(BitmapCachePool cachePool, Resources resources, int resId) {
-        BitmapCacheId cacheId = new BitmapCacheId(resources, resId, 1000, 1000);
-        BitmapCacheable cacheable = cachePool.getCache(cacheId);
-        return cacheable == null ? null : cacheable.getBitmap();
+    private static AcquiredBitmap getBitmap(BitmapCachePool cachePool, Resources resources, int resId) {
+        BitmapCacheId cacheId = BitmapCacheId.obtain(resources, resId, 1000, 1000);
+        Bitmap bitmap = cachePool.acquireBitmap(cacheId);
+        return bitmap == null ? null : new AcquiredBitmap(cachePool, bitmap);
     }
 
 }
@@ -0,0 +1,61 @@
+package com.infthink.libs.cache.simple;
+
+import com.infthink.libs.cache.CachePoolRegistry;
+import com.infthink.libs.cache.RemovalCause;
+import com.infthink.libs.cache.SegmentedLruCache;
+
+/**
+ * <pre>
+ * 图片编码后的原始数据的内存缓存，以 {@linkplain com.infthink.libs.cache.disk.IDiskCacheId#getDiskKey()} 为key，容量按字节计算。
+ * 编码后的数据通常只有解码后的Bitmap的几分之一到几十分之一，同样的内存可以保留多得多的图片，
+ * Bitmap被淘汰后只需要重新解码，不需要重新下载。
+ * </pre>
+ * @see BitmapCachePool#setEncodedCacheSize(int)
+ */
+public class EncodedBitmapCache extends SegmentedLruCache<String, byte[]> {
+
+    /**
+     * 超过容量的此比例的数据不放入缓存，避免一张大图淘汰大量小图
+     */
+    private static final int MAX_ENTRY_FRACTION = 4;
+
+    /**
+     * @param maxSize 所有数据的字节数之和的上限
+     */
+    public EncodedBitmapCache(int maxSize) {
+        super(maxSize);
+    }
+
+    /**
+     * 放入一份原始数据，已有同一份数据时只更新访问顺序
+     * @param key
+     * @param data
+     */
+    public void putData(String key, byte[] data) {
+        if (key == null || data == null || data.length > maxSize() / MAX_ENTRY_FRACTION) {
+            return;
+        }
+        if (getIfPresent(key) != data) {
+            put(key, data);
+        }
+    }
+
+    /**
+     * 只保留容量上限的一部分，与 {@linkplain com.infthink.libs.cache.LruCachePool#trimMemory(int)} 相同
+     * @param level {@linkplain android.content.ComponentCallbacks2} 中的TRIM_MEMORY_*
+     */
+    public void trimMemory(int level) {
+        float fraction = CachePoolRegistry.retainFraction(level);
+        if (fraction <= 0) {
+            evictAll();
+        } else if (fraction < 1) {
+            trimToSize((int) (maxSize() * fraction), RemovalCause.TRIMMED);
+        }
+    }
+
+    @Override
+    protected int sizeOf(String key, byte[] value) {
+        return value.length;
+    }
+
+}
@@ -13,15 +13,18 @@ import android.util.Log;
 import android.widget.ImageView;
 
 import com.infthink.libs.base.BaseApplication;
+import com.infthink.libs.cache.CacheFuture;
 import com.infthink.libs.cache.expires.BitmapCacheId;
 import com.infthink.libs.cache.expires.BitmapCacheable;
 import com.infthink.libs.common.os.AsyncFiloTask;
+import com.infthink.libs.common.utils.IDebuggable;
 import com.infthink.libs.common.utils.SystemUtils;
 
-public class ImageLoader {
+public class ImageLoader implements IDebuggable {
 
     private static final int TAG_IMAGE_URL = 0x5f130000;
     private static final int TAG_TASK = 0x5f130001;
+    private static final int TAG_BITMAP = 0x5f130002;
     private static final String TAG = ImageLoader.class.getSimpleName();
     private static HandlerThread HANDLER_THREAD = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
     static {
@@ -33,10 +36,10 @@ public class ImageLoader {
         public void handleMessage(Message msg) {
             MSG_ obj = (MSG_) msg.obj;
             ImageView imageView = obj.refView.get();
-            if (imageView != null) {
-                if (obj.imageUrl.equals(imageView.getTag(TAG_IMAGE_URL))) {
-                    imageView.setImageBitmap(obj.bitmap);
-                }
+            if (imageView != null && obj.imageUrl.equals(imageView.getTag(TAG_IMAGE_URL))) {
+                show(imageView, obj.acquired);
+            } else {
+                obj.acquired.release();
             }
         }
 
@@ -49,6 +52,7 @@ public class ImageLoader {
         public void handleMessage(Message msg) {
             MSG_ obj = (MSG_) msg.obj;
             if (obj.refView.get() == null) {
+                obj.acquired.release();
                 return;
             }
             sUIHandler.sendMessage(sUIHandler.obtainMessage(0, obj));
@@ -69,92 +73,107 @@ public class ImageLoader {
         if (imagePath == null) {
             return;
         }
-        imageView.setTag(TAG_IMAGE_URL, imagePath);
-        final WeakReference<ImageView> refView = new WeakReference<ImageView>(imageView);
-        AsyncFiloTask<Void, Void, Bitmap> task = new AsyncFiloTask<Void, Void, Bitmap>() {
-
-            @Override
-            protected Bitmap doInBackground(Void... params) {
-                ImageView imageView = refView.get();
-                if (imageView != null && imagePath.equals(imageView.getTag(TAG_IMAGE_URL))) {
-                    Bitmap bitmap = getBitmap(imagePath, cachePool);
-                    imageView = refView.get();
-                    if (imageView != null && bitmap != null) {
-                        if (imagePath.equals(imageView.getTag(TAG_IMAGE_URL))) {
-                            MSG_ obj = new MSG_();
-                            obj.bitmap = bitmap;
-                            obj.imageUrl = imagePath;
-                            obj.refView = refView;
-                            sHandler.sendMessage(sHandler.obtainMessage(0, obj));
-                        }
-                    } else {
-                        if (DEBUG) {
-                            Log.d(TAG, "WeakReference 对 ImageView 的引用为null");
-                        }
-                    }
-                }
-                return null;
-            }
-
-        };
-        imageView.setTag(TAG_TASK, task);
-        task.execute();
+        DisplayMetrics displayMetrics = SystemUtils.getDisplayMetrics(BaseApplication.getInstance());
+        BitmapCacheId cacheId = BitmapCacheId.obtain(displayMetrics.widthPixels, displayMetrics.heightPixels, imagePath);
+        loadImage(cachePool, cacheId, imageView, imagePath);
     }
 
     public static void loadImage(final BitmapCachePool cachePool, ImageView imageView, final String imageUrl) {
         if (imageUrl == null) {
             return;
         }
+        DisplayMetrics displayMetrics = SystemUtils.getDisplayMetrics(BaseApplication.getInstance());
+        BitmapCacheId cacheId = BitmapCacheId.obtain(imageUrl, displayMetrics.widthPixels, displayMetrics.heightPixels);
+        loadImage(cachePool, cacheId, imageView, imageUrl);
+    }
+
+    /**
+     * 强引用缓存命中时直接在调用线程（UI线程）显示，否则在后台加载完成后显示。
+     * 同一个ImageView上一次未完成的请求会被取消。
+     * 显示的Bitmap通过 {@linkplain BitmapCachePool#acquireBitmap(BitmapCacheId)} 持有，ImageView显示其它图片时才release，显示期间不会进入复用池。
+     */
+    private static void loadImage(final BitmapCachePool cachePool, final BitmapCacheId cacheId, ImageView imageView, final String imageUrl) {
         imageView.setTag(TAG_IMAGE_URL, imageUrl);
+        Object previous = imageView.getTag(TAG_TASK);
+        if (previous instanceof CacheFuture) {
+            ((CacheFuture<?>) previous).cancel(false);
+        }
+        CacheFuture<BitmapCacheable> future = cachePool.getCacheAsync(cacheId, AsyncFiloTask.getExecutor());
+        if (future.isDone()) {
+            BitmapCacheable cacheable = null;
+            try {
+                cacheable = future.get();
+            } catch (Exception e) {
+                if (DEBUG)
+                    e.printStackTrace();
+            }
+            Bitmap bitmap = cachePool.acquireBitmap(cacheable);
+            if (bitmap != null) {
+                show(imageView, new AcquiredBitmap(cachePool, bitmap));
+                imageView.setTag(TAG_TASK, null);
+                return;
+            }
+        }
         final WeakReference<ImageView> refView = new WeakReference<ImageView>(imageView);
-        AsyncFiloTask<Void, Void, Bitmap> task = new AsyncFiloTask<Void, Void, Bitmap>() {
+        future.addCallback(new CacheFuture.ICallback<BitmapCacheable>() {
 
             @Override
-            protected Bitmap doInBackground(Void... params) {
-                ImageView imageView = refView.get();
-                if (imageView != null && imageUrl.equals(imageView.getTag(TAG_IMAGE_URL))) {
-                    Bitmap bitmap = getBitmap(cachePool, imageUrl);
-                    imageView = refView.get();
-                    if (imageView != null && bitmap != null) {
-                        if (imageUrl.equals(imageView.getTag(TAG_IMAGE_URL))) {
-                            MSG_ obj = new MSG_();
-                            obj.bitmap = bitmap;
-                            obj.imageUrl = imageUrl;
-                            obj.refView = refView;
-                            sHandler.sendMessage(sHandler.obtainMessage(0, obj));
+            public void onCacheLoaded(BitmapCacheable cacheable) {
+                if (cacheable == null || cacheable.getBitmap() == null) {
+                    return;
+                }
+                Bitmap bitmap = cachePool.acquireBitmap(cacheable);
+                if (bitmap != null) {
+                    deliver(refView, imageUrl, new AcquiredBitmap(cachePool, bitmap));
+                    return;
+                }
+                // 加载完成后已经被淘汰并要放入复用池，在后台重新读取
+                AsyncFiloTask.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (refView.get() == null) {
+                            return;
                         }
-                    } else {
-                        if (DEBUG) {
-                            Log.d(TAG, "WeakReference 对 ImageView 的引用为null");
+                        Bitmap bitmap = cachePool.acquireBitmap(cacheId);
+                        if (bitmap != null) {
+                            deliver(refView, imageUrl, new AcquiredBitmap(cachePool, bitmap));
                         }
                     }
-                }
-                return null;
+                });
             }
 
-        };
-        imageView.setTag(TAG_TASK, task);
-        task.execute();
+        });
+        imageView.setTag(TAG_TASK, future);
     }
 
-    private static Bitmap getBitmap(BitmapCachePool cachePool, String imageUrl) {
-        DisplayMetrics displayMetrics = SystemUtils.getDisplayMetrics(BaseApplication.getInstance());
-        BitmapCacheId cacheId = new BitmapCacheId(imageUrl, displayMetrics.widthPixels, displayMetrics.heightPixels);
-        BitmapCacheable cacheable = cachePool.getCache(cacheId);
-        
-        return cacheable == null ? null : cacheable.getBitmap();
+    private static void deliver(WeakReference<ImageView> refView, String imageUrl, AcquiredBitmap acquired) {
+        ImageView imageView = refView.get();
+        if (imageView != null && imageUrl.equals(imageView.getTag(TAG_IMAGE_URL))) {
+            MSG_ obj = new MSG_();
+            obj.acquired = acquired;
+            obj.imageUrl = imageUrl;
+            obj.refView = refView;
+            sHandler.sendMessage(sHandler.obtainMessage(0, obj));
+        } else {
+            acquired.release();
+            if (DEBUG && imageView == null) {
+                Log.d(TAG, "WeakReference 对 ImageView 的引用为null");
+            }
+        }
     }
 
-    private static Bitmap getBitmap(String path, BitmapCachePool cachePool) {
-        DisplayMetrics displayMetrics = SystemUtils.getDisplayMetrics(BaseApplication.getInstance());
-        BitmapCacheId cacheId = new BitmapCacheId(displayMetrics.widthPixels, displayMetrics.heightPixels, path);
-        BitmapCacheable cacheable = cachePool.getCache(cacheId);
-        
-        return cacheable == null ? null : cacheable.getBitmap();
+    /**
+     * 在UI线程调用，显示新的Bitmap并release之前显示的
+     */
+    private static void show(ImageView imageView, AcquiredBitmap acquired) {
+        imageView.setImageBitmap(acquired.bitmap);
+        Object previous = imageView.getTag(TAG_BITMAP);
+        imageView.setTag(TAG_BITMAP, acquired);
+        AcquiredBitmap.release(previous);
     }
 
     static class MSG_ {
-        Bitmap bitmap;
+        AcquiredBitmap acquired;
         WeakReference<ImageView> refView;
         String imageUrl;
     }
@@ -1,13 +1,283 @@
 package com.infthink.libs.cache.simple;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import com.infthink.libs.cache.CacheExecutors;
 import com.infthink.libs.cache.expires.ExpiresCachePool;
+import com.infthink.libs.cache.policy.IEvictionPolicyFactory;
 import com.infthink.libs.cache.expires.TextCacheId;
 import com.infthink.libs.cache.expires.TextCacheable;
+import com.infthink.libs.common.utils.FileUtils;
+import com.infthink.libs.common.utils.IOUtils;
 
+/**
+ * <pre>
+ * 文本缓存池，可以通过 {@linkplain #setSnapshotFile(File, int)} 开启热点快照：
+ * 应用进入后台（{@linkplain ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN} 及以上）时，把最近访问的未过期文本写入一个快照文件，
+ * 进程重启后在后台线程读取快照，第一次请求对应的CacheId时直接使用快照中的数据，不需要重新请求网络。
+ * 快照只包含可以使用磁盘缓存的CacheId（GET请求）。
+ * 通过 {@linkplain #setCacheParsedResult(boolean)} 可以让 {@linkplain TextLoader} 把解析结果保存在文本缓存中，重复加载时不再解析。
+ * </pre>
+ */
 public class TextCachePool extends ExpiresCachePool<TextCacheId, TextCacheable> {
 
+    private static final String TAG = TextCachePool.class.getSimpleName();
+    private static final int SNAPSHOT_MAGIC = 0x54435053;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int MAX_URL_LENGTH = 8192;
+
+    private volatile boolean mCacheParsedResult;
+    private volatile File mSnapshotFile;
+    private volatile int mSnapshotMaxCount;
+    /**
+     * 上一次保存快照时的 {@linkplain #putCount()}，没有新的记录时不重复保存，避免用释放内存后剩下的少量记录覆盖之前的快照
+     */
+    private volatile int mSnapshotPutCount = -1;
+    private final AtomicBoolean mSnapshotSaving = new AtomicBoolean();
+    /**
+     * 从快照中读取、尚未使用的编码数据，第一次请求时才解码
+     */
+    private final ConcurrentMap<TextCacheId, byte[]> mWarmEntries = new ConcurrentHashMap<TextCacheId, byte[]>();
+
     public TextCachePool(int maxSize) {
         super(maxSize);
     }
 
+    /**
+     * @param maxSize
+     * @param policyFactory 强引用缓存的淘汰策略，为null时使用LRU
+     */
+    public TextCachePool(int maxSize, IEvictionPolicyFactory policyFactory) {
+        super(maxSize, policyFactory);
+    }
+
+    /**
+     * @param enable 是否保存 {@linkplain TextLoader.ITextLoadListener#parseText(String)} 的结果，
+     * 开启后解析结果会被同一个地址的所有加载共享，解析器不应该返回之后还会被修改的对象
+     */
+    public void setCacheParsedResult(boolean enable) {
+        mCacheParsedResult = enable;
+    }
+
+    public boolean isCacheParsedResult() {
+        return mCacheParsedResult;
+    }
+
+    /**
+     * 不阻塞地读取强引用中未过期的文本的解析结果，可以在UI线程中调用
+     * @param cacheId
+     * @param parserType
+     * @return 未开启 {@linkplain #setCacheParsedResult(boolean)}、文本不在内存中或者没有解析结果时返回null
+     */
+    public Object getParsedIfPresent(TextCacheId cacheId, Class<?> parserType) {
+        if (!mCacheParsedResult) {
+            return null;
+        }
+        TextCacheable cacheable = peekCache(cacheId);
+        Object parsed = cacheable == null ? null : cacheable.getParsed(parserType);
+        if (parsed != null) {
+            getStats().recordRequest();
+        }
+        return parsed;
+    }
+
+    /**
+     * 设置快照文件并在后台线程读取上一次保存的快照，可以在UI线程中调用
+     * @param file 为null表示关闭快照
+     * @param maxCount 快照中最多保存的记录数
+     */
+    public void setSnapshotFile(File file, int maxCount) {
+        mSnapshotFile = file;
+        mSnapshotMaxCount = maxCount;
+        if (file == null || maxCount <= 0) {
+            mWarmEntries.clear();
+            return;
+        }
+        final File snapshotFile = file;
+        try {
+            CacheExecutors.background().execute(new Runnable() {
+                @Override
+                public void run() {
+                    restoreSnapshot(snapshotFile);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (DEBUG)
+                e.printStackTrace();
+        }
+    }
+
+    /**
+     * 保存快照前先释放内存会丢失大部分热点数据，所以先在调用线程取出记录，再在后台线程写入文件
+     */
+    @Override
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            saveSnapshotInBackground();
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mWarmEntries.clear();
+        }
+        super.trimMemory(level);
+    }
+
+    @Override
+    public void clearAllCache() {
+        mWarmEntries.clear();
+        super.clearAllCache();
+    }
+
+    /**
+     * 快照中的数据只使用一次，过期的数据直接丢弃
+     */
+    @Override
+    protected TextCacheable deriveCache(TextCacheId cacheId) {
+        if (mWarmEntries.isEmpty()) {
+            return null;
+        }
+        byte[] data = mWarmEntries.remove(cacheId);
+        if (data == null) {
+            return null;
+        }
+        TextCacheable cacheable = cacheId.createCache(data);
+        if (cacheable == null || cacheable.isExpires()) {
+            return null;
+        }
+        return cacheable;
+    }
+
+    private void saveSnapshotInBackground() {
+        final File file = mSnapshotFile;
+        int maxCount = mSnapshotMaxCount;
+        final int putCount = putCount();
+        if (file == null || maxCount <= 0 || putCount == mSnapshotPutCount) {
+            return;
+        }
+        final List<Map.Entry<TextCacheId, TextCacheable>> entries = new ArrayList<Map.Entry<TextCacheId, TextCacheable>>();
+        for (Map.Entry<TextCacheId, TextCacheable> entry : hottest(maxCount).entrySet()) {
+            TextCacheId cacheId = entry.getKey();
+            if (cacheId.getDiskKey() != null && cacheId.getUrl().length() <= MAX_URL_LENGTH && !entry.getValue().isExpires()) {
+                entries.add(entry);
+            }
+        }
+        if (entries.isEmpty() || !mSnapshotSaving.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            CacheExecutors.background().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (writeSnapshot(file, entries)) {
+                            mSnapshotPutCount = putCount;
+                        }
+                    } finally {
+                        mSnapshotSaving.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            mSnapshotSaving.set(false);
+            if (DEBUG)
+                e.printStackTrace();
+        }
+    }
+
+    /**
+     * 先写入临时文件再重命名，进程在写入过程中被杀死不会破坏上一次的快照
+     */
+    private boolean writeSnapshot(File file, List<Map.Entry<TextCacheId, TextCacheable>> entries) {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream dos = null;
+        int count = 0;
+        boolean written = false;
+        try {
+            File parent = file.getParentFile();
+            if (parent != null) {
+                FileUtils.forceMkdir(parent);
+            }
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            dos.writeInt(SNAPSHOT_MAGIC);
+            dos.writeInt(SNAPSHOT_VERSION);
+            for (Map.Entry<TextCacheId, TextCacheable> entry : entries) {
+                TextCacheId cacheId = entry.getKey();
+                byte[] data = cacheId.toData(entry.getValue());
+                if (data == null) {
+                    continue;
+                }
+                dos.writeBoolean(true);
+                dos.writeUTF(cacheId.getUrl());
+                dos.writeInt(cacheId.getMode());
+                dos.writeInt(data.length);
+                dos.write(data);
+                count++;
+            }
+            dos.writeBoolean(false);
+            dos.flush();
+            written = true;
+        } catch (IOException e) {
+            if (DEBUG)
+                e.printStackTrace();
+        } finally {
+            IOUtils.close(dos);
+        }
+        if (!written || !tmp.renameTo(file)) {
+            FileUtils.deleteQuietly(tmp);
+            return false;
+        }
+        if (DEBUG)
+            Log.d(TAG, String.format("保存快照 %s, count:%s", file, count));
+        return true;
+    }
+
+    private void restoreSnapshot(File file) {
+        if (!file.isFile()) {
+            return;
+        }
+        DataInputStream dis = null;
+        int count = 0;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (dis.readInt() != SNAPSHOT_MAGIC || dis.readInt() != SNAPSHOT_VERSION) {
+                if (DEBUG)
+                    Log.d(TAG, String.format("快照格式错误 %s", file));
+                return;
+            }
+            while (dis.readBoolean()) {
+                TextCacheId cacheId = TextCacheId.obtain(dis.readUTF(), dis.readInt());
+                byte[] data = new byte[dis.readInt()];
+                dis.readFully(data);
+                if (file != mSnapshotFile) {
+                    return;
+                }
+                mWarmEntries.putIfAbsent(cacheId, data);
+                count++;
+            }
+        } catch (IOException e) {
+            // 文件不完整时保留已经读取的记录
+            if (DEBUG)
+                e.printStackTrace();
+        } finally {
+            IOUtils.close(dis);
+        }
+        if (DEBUG)
+            Log.d(TAG, String.format("读取快照 %s, count:%s", file, count));
+    }
+
 }
@@ -96,6 +96,14 @@ public class TextLoader {
             return;
         }
         listener.setTag(TAG_TEXT_URL, textUrl);
+        final int cacheMode = HttpDownload.METHOD_GET.equals(mode) ? 0 : 1;
+        Object parsed = cachePool.getParsedIfPresent(TextCacheId.obtain(textUrl, cacheMode), listener.getClass());
+        if (parsed != null) {
+            // 文本和解析结果都在内存中，直接返回，不需要切换线程
+            listener.setTag(TAG_TASK, null);
+            listener.onLoadResult(castParsed(listener, parsed));
+            return;
+        }
         final WeakReference<ITextLoadListener<T>> refListener = new WeakReference<ITextLoadListener<T>>(listener);
         AsyncFiloTask<Void, Void, T> task = new AsyncFiloTask<Void, Void, T>() {
 
@@ -103,9 +111,9 @@ public class TextLoader {
             protected T doInBackground(Void... params) {
                 ITextLoadListener<T> listener = refListener.get();
                 if (listener != null && textUrl.equals(listener.getTag(TAG_TEXT_URL))) {
-                    String text = getText(cachePool, textUrl, HttpDownload.METHOD_GET.equals(mode) ? 0 : 1);
-                    if (text != null) {
-                        return listener.parseText(text);
+                    TextCacheable cacheable = cachePool.getCache(TextCacheId.obtain(textUrl, cacheMode));
+                    if (cacheable != null) {
+                        return parseText(cachePool, cacheable, listener);
                     }
                 }
                 return null;
@@ -130,14 +138,34 @@ public class TextLoader {
         task.execute();
     }
     
-    private static String getText(TextCachePool cachePool, String httpUrl) {
-        return getText(cachePool, httpUrl, 0);
+    /**
+     * 开启 {@linkplain TextCachePool#setCacheParsedResult(boolean)} 时，按listener的类型复用文本缓存中保存的解析结果
+     */
+    private static <T> T parseText(TextCachePool cachePool, TextCacheable cacheable, ITextLoadListener<T> listener) {
+        boolean cacheParsed = cachePool.isCacheParsedResult();
+        if (cacheParsed) {
+            Object parsed = cacheable.getParsed(listener.getClass());
+            if (parsed != null) {
+                return castParsed(listener, parsed);
+            }
+        }
+        String text = cacheable.getText();
+        if (text == null) {
+            return null;
+        }
+        T result = listener.parseText(text);
+        if (cacheParsed && result != null) {
+            cacheable.putParsed(listener.getClass(), result);
+        }
+        return result;
     }
 
-    private static String getText(TextCachePool cachePool, String httpUrl, int mode) {
-        TextCacheId cacheId = new TextCacheId(httpUrl, mode);
-        TextCacheable cacheable = cachePool.getCache(cacheId);
-        return cacheable == null ? null : cacheable.getText();
+    /**
+     * 解析结果按listener的类型保存，同一类型的listener的parseText返回类型相同
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T castParsed(ITextLoadListener<T> listener, Object parsed) {
+        return (T) parsed;
     }
 
 }
@@ -101,4 +101,11 @@ public abstract class AsyncFiloTask<Params, Progress, Result> extends AsyncTask<
         mHandler.sendEmptyMessageAtTime(0, 0);
     }
 
+    /**
+     * @return 执行任务的线程池，后提交的任务先执行
+     */
+    public static Executor getExecutor() {
+        return THREAD_POOL_EXECUTOR;
+    }
+
 }
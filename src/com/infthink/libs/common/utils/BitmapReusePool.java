@@ -0,0 +1,153 @@
+package com.infthink.libs.common.utils;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * <pre>
+ * 可复用的Bitmap池，解码图片时通过 {@linkplain android.graphics.BitmapFactory.Options#inBitmap} 复用池中的内存，
+ * 减少滑动列表时频繁创建Bitmap导致的GC。
+ * 放入池中的Bitmap的像素会被下一次解码覆盖，调用者必须确保它已经不再被显示或者使用。
+ * API 19及以上只要求内存足够大，API 19以下要求宽高完全相同并且inSampleSize为1。
+ * </pre>
+ * @see BitmapUtils#setBitmapReusePool(BitmapReusePool)
+ */
+public class BitmapReusePool implements IDebuggable {
+
+    private static final String TAG = BitmapReusePool.class.getSimpleName();
+
+    /**
+     * 复用的Bitmap的内存最多为需要的内存的倍数，避免小图占用大块的内存
+     */
+    private static final int MAX_WASTE_FACTOR = 2;
+
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<Bitmap>();
+    private final int mMaxSize;
+    private int mSize;
+
+    /**
+     * @param maxSize 池中所有Bitmap占用的内存之和的上限，单位为字节
+     */
+    public BitmapReusePool(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 放入一个不再使用的Bitmap，不可变的或者已经recycle的Bitmap会被忽略。超出容量时丢弃最早放入的Bitmap。
+     * @param bitmap
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        int size = sizeOf(bitmap);
+        if (size > mMaxSize) {
+            return;
+        }
+        synchronized (this) {
+            for (Bitmap pooled : mBitmaps) {
+                if (pooled == bitmap) {
+                    return;
+                }
+            }
+            mBitmaps.addLast(bitmap);
+            mSize += size;
+            while (mSize > mMaxSize) {
+                mSize -= sizeOf(mBitmaps.removeFirst());
+            }
+        }
+    }
+
+    /**
+     * 取出一个可以用于解码的Bitmap，取出后不再属于池
+     * @param width 解码后的宽度
+     * @param height 解码后的高度
+     * @param inSampleSize 解码时的inSampleSize
+     * @param config 解码后的颜色格式
+     * @return 没有合适的Bitmap时返回null
+     */
+    public synchronized Bitmap get(int width, int height, int inSampleSize, Bitmap.Config config) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        boolean kitkat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        if (!kitkat && inSampleSize > 1) {
+            return null;
+        }
+        int required = width * height * bytesPerPixel(config);
+        Bitmap best = null;
+        for (Bitmap bitmap : mBitmaps) {
+            if (kitkat) {
+                int size = sizeOf(bitmap);
+                if (size >= required && size <= required * MAX_WASTE_FACTOR && (best == null || size < sizeOf(best))) {
+                    best = bitmap;
+                }
+            } else if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                best = bitmap;
+                break;
+            }
+        }
+        if (best != null) {
+            removeBitmap(best);
+            if (DEBUG)
+                Log.d(TAG, String.format("复用Bitmap w:%s, h:%s, size:%s", width, height, sizeOf(best)));
+        }
+        return best;
+    }
+
+    /**
+     * 清空池
+     */
+    public synchronized void clear() {
+        mBitmaps.clear();
+        mSize = 0;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    private void removeBitmap(Bitmap bitmap) {
+        Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == bitmap) {
+                iterator.remove();
+                mSize -= sizeOf(bitmap);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param bitmap
+     * @return Bitmap实际占用的内存，API 19及以上复用后的Bitmap占用的内存可能大于 {@linkplain Bitmap#getByteCount()}
+     */
+    public static int sizeOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+
+}
@@ -12,6 +12,19 @@ import android.util.Log;
 public class BitmapUtils implements IDebuggable {
 
     private static final String TAG = BitmapUtils.class.getSimpleName();
+    private static volatile BitmapReusePool sReusePool;
+
+    /**
+     * 设置解码时复用的Bitmap池，设置后解码出的Bitmap都是可变的。
+     * @param reusePool 为null表示不复用
+     */
+    public static void setBitmapReusePool(BitmapReusePool reusePool) {
+        sReusePool = reusePool;
+    }
+
+    public static BitmapReusePool getBitmapReusePool() {
+        return sReusePool;
+    }
 
     /**
      * @param path 图片在本地的文件地址
@@ -20,6 +33,14 @@ public class BitmapUtils implements IDebuggable {
      * @return 如果解码失败，返回null
      */
     public static Bitmap decodeBitmap(String path, int maxWidth, int maxHeight) {
+        return decodeBitmap(path, maxWidth, maxHeight, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 同 {@linkplain #decodeBitmap(String, int, int)}
+     * @param config 解码使用的格式，为null时按 {@linkplain #chooseConfig(Options)} 选择
+     */
+    public static Bitmap decodeBitmap(String path, int maxWidth, int maxHeight, Bitmap.Config config) {
         Options opts = new Options();
         opts.inJustDecodeBounds = true;
         Bitmap bitmap = BitmapFactory.decodeFile(path, opts);
@@ -36,7 +57,18 @@ public class BitmapUtils implements IDebuggable {
                 float inSampleSize = Math.max(inSampleSizeWidth, inSampleSizeHeight);
                 opts.inSampleSize = (int) Math.ceil(inSampleSize);
             }
-            bitmap = BitmapFactory.decodeFile(path, opts);
+            opts.inPreferredConfig = config != null ? config : chooseConfig(opts);
+            opts.inDither = opts.inPreferredConfig == Bitmap.Config.RGB_565;
+            applyReusePool(opts);
+            try {
+                bitmap = BitmapFactory.decodeFile(path, opts);
+            } catch (IllegalArgumentException e) {
+                // 复用的Bitmap不满足解码的要求
+                if (DEBUG)
+                    e.printStackTrace();
+                opts.inBitmap = null;
+                bitmap = BitmapFactory.decodeFile(path, opts);
+            }
         } else {
             if (DEBUG) {
                 Log.d(TAG, String.format("图片无效 url:%s, w:%s, h:%s, mw:%s, mh:%s", path, opts.outWidth, opts.outHeight, maxWidth, maxHeight));
@@ -57,6 +89,14 @@ public class BitmapUtils implements IDebuggable {
      * @return 如果解码失败，返回null
      */
     public static Bitmap decodeBitmap(InputStream inputStream, int maxWidth, int maxHeight) {
+        return decodeBitmap(inputStream, maxWidth, maxHeight, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 同 {@linkplain #decodeBitmap(InputStream, int, int)}
+     * @param config 解码使用的格式，为null时按 {@linkplain #chooseConfig(Options)} 选择
+     */
+    public static Bitmap decodeBitmap(InputStream inputStream, int maxWidth, int maxHeight, Bitmap.Config config) {
         Options opts = new Options();
         opts.inJustDecodeBounds = true;
         Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, opts);
@@ -73,13 +113,30 @@ public class BitmapUtils implements IDebuggable {
                 float inSampleSize = Math.max(inSampleSizeWidth, inSampleSizeHeight);
                 opts.inSampleSize = (int) Math.ceil(inSampleSize);
             }
+            opts.inPreferredConfig = config != null ? config : chooseConfig(opts);
+            opts.inDither = opts.inPreferredConfig == Bitmap.Config.RGB_565;
+            applyReusePool(opts);
             try {
                 inputStream.reset();
             } catch (IOException e) {
                 if (DEBUG)
                     e.printStackTrace();
             }
-            bitmap = BitmapFactory.decodeStream(inputStream, null, opts);
+            try {
+                bitmap = BitmapFactory.decodeStream(inputStream, null, opts);
+            } catch (IllegalArgumentException e) {
+                // 复用的Bitmap不满足解码的要求
+                if (DEBUG)
+                    e.printStackTrace();
+                opts.inBitmap = null;
+                try {
+                    inputStream.reset();
+                } catch (IOException ioe) {
+                    if (DEBUG)
+                        ioe.printStackTrace();
+                }
+                bitmap = BitmapFactory.decodeStream(inputStream, null, opts);
+            }
         } else {
             if (DEBUG) {
                 Log.d(TAG, String.format("图片无效 图片流, w:%s, h:%s, mw:%s, mh:%s", opts.outWidth, opts.outHeight, maxWidth, maxHeight));
@@ -93,6 +150,62 @@ public class BitmapUtils implements IDebuggable {
         return bitmap;
     }
 
+    /**
+     * @param data 图片编码后的数据
+     * @param maxWidth 限制最大的宽度, -1表示不限制
+     * @param maxHeight 限制最大的高度, -1表示不限制
+     * @return 如果解码失败，返回null
+     */
+    public static Bitmap decodeBitmap(byte[] data, int maxWidth, int maxHeight) {
+        return decodeBitmap(data, maxWidth, maxHeight, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 同 {@linkplain #decodeBitmap(byte[], int, int)}
+     * @param config 解码使用的格式，为null时按 {@linkplain #chooseConfig(Options)} 选择
+     */
+    public static Bitmap decodeBitmap(byte[] data, int maxWidth, int maxHeight, Bitmap.Config config) {
+        Options opts = new Options();
+        opts.inJustDecodeBounds = true;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+        if (bitmap == null && opts.outWidth > 0 && opts.outHeight > 0) {
+            if (DEBUG) {
+                Log.d(TAG, String.format("图片有效 图片数据, w:%s, h:%s, mw:%s, mh:%s", opts.outWidth, opts.outHeight, maxWidth, maxHeight));
+            }
+            // 数据有效
+            opts.inSampleSize = 1;
+            opts.inJustDecodeBounds = false;
+            if ((maxWidth != -1 && maxWidth < opts.outWidth) || (maxHeight != -1 && maxHeight < opts.outHeight)) {
+                float inSampleSizeWidth = opts.outWidth * 1.0f / maxWidth;
+                float inSampleSizeHeight = opts.outHeight * 1.0f / maxHeight;
+                float inSampleSize = Math.max(inSampleSizeWidth, inSampleSizeHeight);
+                opts.inSampleSize = (int) Math.ceil(inSampleSize);
+            }
+            opts.inPreferredConfig = config != null ? config : chooseConfig(opts);
+            opts.inDither = opts.inPreferredConfig == Bitmap.Config.RGB_565;
+            applyReusePool(opts);
+            try {
+                bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+            } catch (IllegalArgumentException e) {
+                // 复用的Bitmap不满足解码的要求
+                if (DEBUG)
+                    e.printStackTrace();
+                opts.inBitmap = null;
+                bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+            }
+        } else {
+            if (DEBUG) {
+                Log.d(TAG, String.format("图片无效 图片数据, w:%s, h:%s, mw:%s, mh:%s", opts.outWidth, opts.outHeight, maxWidth, maxHeight));
+            }
+        }
+        if (bitmap == null) {
+            if (DEBUG) {
+                Log.d(TAG, String.format("解码图片失败 图片数据, w:%s, h:%s, mw:%s, mh:%s", opts.outWidth, opts.outHeight, maxWidth, maxHeight));
+            }
+        }
+        return bitmap;
+    }
+
     /**
      * @param res
      * @param id 资源id {@code R.id.xxx}
@@ -101,6 +214,14 @@ public class BitmapUtils implements IDebuggable {
      * @return 如果解码失败，返回null
      */
     public static Bitmap decodeBitmap(Resources res, int id, int maxWidth, int maxHeight) {
+        return decodeBitmap(res, id, maxWidth, maxHeight, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 同 {@linkplain #decodeBitmap(Resources, int, int, int)}
+     * @param config 解码使用的格式，为null时按 {@linkplain #chooseConfig(Options)} 选择
+     */
+    public static Bitmap decodeBitmap(Resources res, int id, int maxWidth, int maxHeight, Bitmap.Config config) {
         Options opts = new Options();
         opts.inJustDecodeBounds = true;
         Bitmap bitmap = BitmapFactory.decodeResource(res, id, opts);
@@ -117,7 +238,18 @@ public class BitmapUtils implements IDebuggable {
                 float inSampleSize = Math.max(inSampleSizeWidth, inSampleSizeHeight);
                 opts.inSampleSize = (int) Math.ceil(inSampleSize);
             }
-            bitmap = BitmapFactory.decodeResource(res, id, opts);
+            opts.inPreferredConfig = config != null ? config : chooseConfig(opts);
+            opts.inDither = opts.inPreferredConfig == Bitmap.Config.RGB_565;
+            applyReusePool(opts);
+            try {
+                bitmap = BitmapFactory.decodeResource(res, id, opts);
+            } catch (IllegalArgumentException e) {
+                // 复用的Bitmap不满足解码的要求
+                if (DEBUG)
+                    e.printStackTrace();
+                opts.inBitmap = null;
+                bitmap = BitmapFactory.decodeResource(res, id, opts);
+            }
         } else {
             if (DEBUG) {
                 Log.d(TAG, String.format("图片无效 id:%s, w:%s, h:%s, mw:%s, mh:%s", id, opts.outWidth, opts.outHeight, maxWidth, maxHeight));
@@ -131,4 +263,33 @@ public class BitmapUtils implements IDebuggable {
         return bitmap;
     }
 
+    /**
+     * JPEG没有透明通道，使用每像素2字节的RGB_565，内存占用是ARGB_8888的一半；其它格式一律使用ARGB_8888。
+     * 只按outMimeType判断，不检查图片实际是否有透明像素，没有透明通道的PNG、WebP也使用ARGB_8888；
+     * 确定不透明时由调用者传入RGB_565，见 {@linkplain com.infthink.libs.cache.expires.BitmapCacheId#BitmapCacheId(String, int, int, Bitmap.Config)}
+     * @param opts 已经读取了图片信息（inJustDecodeBounds）
+     * @return
+     */
+    public static Bitmap.Config chooseConfig(Options opts) {
+        return "image/jpeg".equals(opts.outMimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * 从复用池中取出一个可以用于本次解码的Bitmap，需要在计算完inSampleSize之后调用
+     * @param opts
+     */
+    private static void applyReusePool(Options opts) {
+        BitmapReusePool reusePool = sReusePool;
+        if (reusePool == null) {
+            return;
+        }
+        opts.inMutable = true;
+        // 部分解码器只支持2的幂的inSampleSize，按向下取整后的值估计解码后的大小
+        int sampleSize = Integer.highestOneBit(Math.max(1, opts.inSampleSize));
+        int width = (opts.outWidth + sampleSize - 1) / sampleSize;
+        int height = (opts.outHeight + sampleSize - 1) / sampleSize;
+        Bitmap.Config config = opts.inPreferredConfig == null ? Bitmap.Config.ARGB_8888 : opts.inPreferredConfig;
+        opts.inBitmap = reusePool.get(width, height, opts.inSampleSize, config);
+    }
+
 }
@@ -0,0 +1,69 @@
+package com.infthink.libs.common.utils;
+
+/**
+ * 64位FNV-1a哈希，直接按char计算，不需要先把字符串编码为字节，计算过程中没有内存分配。
+ */
+public class HashUtils {
+
+    public static final long FNV64_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV64_PRIME = 0x100000001b3L;
+
+    /**
+     * @param hash 之前的哈希值，第一次计算时为 {@linkplain #FNV64_OFFSET_BASIS}
+     * @param value 为null时按一个与空字符串不同的固定值计算
+     * @return
+     */
+    public static long fnv64(long hash, String value) {
+        if (value == null) {
+            return fnv64(hash, 0x7fffffff);
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            hash ^= c & 0xff;
+            hash *= FNV64_PRIME;
+            hash ^= c >>> 8;
+            hash *= FNV64_PRIME;
+        }
+        return fnv64(hash, length);
+    }
+
+    /**
+     * @param hash 之前的哈希值，第一次计算时为 {@linkplain #FNV64_OFFSET_BASIS}
+     * @param value
+     * @return
+     */
+    public static long fnv64(long hash, int value) {
+        for (int i = 0; i < 4; i++) {
+            hash ^= value & 0xff;
+            hash *= FNV64_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    /**
+     * @param hash 之前的哈希值，第一次计算时为 {@linkplain #FNV64_OFFSET_BASIS}
+     * @param data 为null时按一个与空数组不同的固定值计算
+     * @return
+     */
+    public static long fnv64(long hash, byte[] data) {
+        if (data == null) {
+            return fnv64(hash, 0x7fffffff);
+        }
+        for (int i = 0; i < data.length; i++) {
+            hash ^= data[i] & 0xff;
+            hash *= FNV64_PRIME;
+        }
+        return fnv64(hash, data.length);
+    }
+
+    /**
+     * @param hash 64位哈希值
+     * @return 用于 {@linkplain Object#hashCode()} 的32位值
+     */
+    public static int fold(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+}
@@ -42,6 +42,19 @@ public class IOUtils implements IDebuggable {
         return result;
     }
 
+    /**
+     * 此方法并不会close输入流
+     * @param is
+     * @return 读取失败 返回null
+     */
+    public static byte[] readBytes(InputStream is) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(16 * 1024);
+        if (copy(is, baos) < 0) {
+            return null;
+        }
+        return baos.toByteArray();
+    }
+
     /**
      * 此方法不会关闭输入输出流
      * @param is
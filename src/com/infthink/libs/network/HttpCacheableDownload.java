@@ -0,0 +1,152 @@
+package com.infthink.libs.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+import android.util.Log;
+
+import com.infthink.libs.common.utils.IDebuggable;
+import com.infthink.libs.common.utils.IOUtils;
+import com.infthink.libs.network.HttpDownload.IOnAddRequestProperties;
+
+/**
+ * <pre>
+ * 带缓存信息的GET下载，同步返回响应内容和与缓存相关的响应头。
+ * 传入上一次响应的ETag或者Last-Modified时发送条件请求，服务器返回304时不传输响应内容。
+ * </pre>
+ */
+public class HttpCacheableDownload implements IDebuggable {
+
+    private static final String TAG = HttpCacheableDownload.class.getSimpleName();
+
+    /**
+     * 非UI方法
+     * @param httpUrl
+     * @param eTag 上一次响应的ETag，为null表示不发送If-None-Match
+     * @param lastModified 上一次响应的Last-Modified，为null表示不发送If-Modified-Since
+     * @return 网络错误或者读取失败时返回null
+     */
+    public static Response download(final String httpUrl, final String eTag, final String lastModified) {
+        final Response response = new Response();
+        HttpDownload.download(HttpDownload.METHOD_GET, httpUrl, new IOnAddRequestProperties() {
+            @Override
+            public void onAddRequestProperties(HttpURLConnection connection) {
+                if (eTag != null) {
+                    connection.setRequestProperty(HttpDownload.HEAD_If_None_Match, eTag);
+                }
+                if (lastModified != null) {
+                    connection.setRequestProperty(HttpDownload.HEAD_If_Modified_Since, lastModified);
+                }
+            }
+        }, false, null, new HttpDownload.IOnDoInput() {
+            @Override
+            public void onDoInput(HttpURLConnection connection, InputStream is) {
+                try {
+                    response.mResponseCode = connection.getResponseCode();
+                } catch (IOException e) {
+                    if (DEBUG)
+                        e.printStackTrace();
+                    return;
+                }
+                response.mETag = connection.getHeaderField(HttpDownload.HEAD_ETag);
+                response.mLastModified = connection.getHeaderField(HttpDownload.HEAD_Last_Modified);
+                response.mCacheControl = connection.getHeaderField(HttpDownload.HEAD_Cache_Control);
+                response.mExpires = connection.getHeaderFieldDate(HttpDownload.HEAD_Expires, 0);
+                response.mDate = connection.getHeaderFieldDate(HttpDownload.HEAD_Date, 0);
+                response.mAge = connection.getHeaderFieldInt(HttpDownload.HEAD_Age, 0);
+                if (response.mResponseCode == HttpURLConnection.HTTP_OK) {
+                    response.mData = IOUtils.readBytes(is);
+                }
+                if (DEBUG)
+                    Log.d(TAG, String.format("responseCode:%s, url:%s, ETag:%s, Last-Modified:%s, Cache-Control:%s", new Object[] { response.mResponseCode, httpUrl,
+                            response.mETag, response.mLastModified, response.mCacheControl }));
+            }
+        }, null);
+        if (response.mResponseCode == 0 || (response.mResponseCode == HttpURLConnection.HTTP_OK && response.mData == null)) {
+            return null;
+        }
+        return response;
+    }
+
+    public static class Response {
+
+        private int mResponseCode;
+        private byte[] mData;
+        private String mETag;
+        private String mLastModified;
+        private String mCacheControl;
+        private long mExpires;
+        private long mDate;
+        private int mAge;
+
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        /**
+         * @return 服务器返回304时为true
+         */
+        public boolean isNotModified() {
+            return mResponseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        /**
+         * @return 响应内容，只有200时不为null
+         */
+        public byte[] getData() {
+            return mData;
+        }
+
+        public String getETag() {
+            return mETag;
+        }
+
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        public String getCacheControl() {
+            return mCacheControl;
+        }
+
+        /**
+         * <pre>
+         * 按RFC 2616 13.2计算响应的新鲜时间，单位毫秒。
+         * Cache-Control的no-cache、no-store优先，其次是max-age（扣除Age），再其次是Expires与Date的差值。
+         * </pre>
+         * @param defaultLifetime 响应中没有缓存信息时使用的值
+         * @return 不能缓存时返回0
+         */
+        public long getFreshnessLifetime(long defaultLifetime) {
+            if (mCacheControl != null) {
+                String[] directives = mCacheControl.toLowerCase().split(",");
+                for (String directive : directives) {
+                    directive = directive.trim();
+                    if (directive.equals("no-cache") || directive.equals("no-store")) {
+                        return 0;
+                    }
+                }
+                for (String directive : directives) {
+                    directive = directive.trim();
+                    if (directive.startsWith("max-age=")) {
+                        try {
+                            long maxAge = Long.parseLong(directive.substring("max-age=".length()).trim());
+                            return Math.max(0, maxAge - mAge) * 1000;
+                        } catch (NumberFormatException e) {
+                            if (DEBUG)
+                                e.printStackTrace();
+                        }
+                    }
+                }
+            }
+            if (mExpires > 0) {
+                long date = mDate > 0 ? mDate : System.currentTimeMillis();
+                return Math.max(0, mExpires - date);
+            }
+            return defaultLifetime;
+        }
+
+    }
+
+}